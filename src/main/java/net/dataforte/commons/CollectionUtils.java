@@ -1,12 +1,15 @@
 package net.dataforte.commons;
 
 import java.util.Collection;
-import java.util.Iterator;
+
+import net.dataforte.commons.collections.Intersections;
 
 public class CollectionUtils {
 	
 	/**
-	 * Compares two collections returning the number of elements they have in common
+	 * Compares two collections returning the number of elements they have in common,
+	 * i.e. the number of elements of one which are contained in two. The strategy
+	 * is chosen from the types and sizes of the collections, see {@link Intersections}.
 	 * 
 	 * @param <T>
 	 * @param one
@@ -14,14 +17,22 @@ public class CollectionUtils {
 	 * @return
 	 */
 	public static <T> int collectionCompare(Collection<T> one, Collection<T> two) {
-		int count = 0;
-
-		Iterator<T> e = one.iterator();
-		while (e.hasNext()) {
-			if (two.contains(e.next()))
-				++count;
-		}
+		return Intersections.count(one, two);
+	}
 
-		return count;
+	/**
+	 * Estimates the number of distinct elements two collections have in common
+	 * from their {@link MinHash} sketches, e.g. built with
+	 * {@link MinHash#of(Collection, int)}. Building a sketch costs more than
+	 * {@link #collectionCompare(Collection, Collection)}, so this only pays off
+	 * when the sketches are built once and kept, and each collection is
+	 * compared many times. Duplicates are not counted.
+	 * 
+	 * @param one
+	 * @param two
+	 * @return
+	 */
+	public static long estimateCollectionCompare(MinHash one, MinHash two) {
+		return one.estimateIntersection(two);
 	}
 }
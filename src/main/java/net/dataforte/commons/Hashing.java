@@ -0,0 +1,43 @@
+package net.dataforte.commons;
+
+/**
+ * 64-bit hashing helpers shared by the sketches
+ *
+ * @author Tristan Tarrant
+ *
+ */
+final class Hashing {
+	private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+	private Hashing() {
+	}
+
+	/**
+	 * Spreads the {@link Object#hashCode()} of an element over 64 bits. Only 32
+	 * bits of entropy are available, so callers which need more should hash
+	 * their elements themselves.
+	 */
+	static long hash(Object element) {
+		return mix((element != null ? element.hashCode() : 0) + GOLDEN_RATIO);
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, which turns similar inputs into
+	 * uncorrelated outputs
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @return the next value of a SplitMix64 sequence, used to derive seeds
+	 */
+	static long splitMix(long state) {
+		return mix(state + GOLDEN_RATIO);
+	}
+}
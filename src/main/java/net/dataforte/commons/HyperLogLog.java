@@ -0,0 +1,149 @@
+package net.dataforte.commons;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct elements added
+ * to it using 2<sup>precision</sup> bytes, regardless of the number of elements.
+ * The relative standard error of the estimate is 1.04 / sqrt(2<sup>precision</sup>),
+ * e.g. 0.8% with the default precision of 14 (16KB).
+ *
+ * Sketches with the same precision can be merged, yielding the sketch of the
+ * union of their elements. Sketches are not thread-safe: to build a sketch in
+ * parallel, build one per thread and merge them, as {@link #of(Collection, int)}
+ * does.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class HyperLogLog {
+	public static final int DEFAULT_PRECISION = 14;
+	public static final int MINIMUM_PRECISION = 4;
+	public static final int MAXIMUM_PRECISION = 18;
+
+	private final int precision;
+	private final byte[] registers;
+
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * @param precision the base 2 logarithm of the number of registers, between
+	 *        {@link #MINIMUM_PRECISION} and {@link #MAXIMUM_PRECISION}
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION)
+			throw new IllegalArgumentException("Precision must be between " + MINIMUM_PRECISION + " and " + MAXIMUM_PRECISION + ": " + precision);
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Builds the sketch of a collection, in parallel if the collection is large
+	 */
+	public static HyperLogLog of(Collection<?> elements, final int precision) {
+		return elements.parallelStream().collect(() -> new HyperLogLog(precision), HyperLogLog::add, HyperLogLog::merge);
+	}
+
+	/**
+	 * Adds an element, hashing its {@link Object#hashCode()}
+	 */
+	public void add(Object element) {
+		addHash(Hashing.hash(element));
+	}
+
+	public void addAll(Collection<?> elements) {
+		for (Object element : elements) {
+			add(element);
+		}
+	}
+
+	/**
+	 * Adds an element by its 64-bit hash, which must be uniformly distributed
+	 */
+	public void addHash(long hash) {
+		int index = (int) (hash >>> (64 - precision));
+		// The sentinel bit bounds the rank when the remaining bits are all zero
+		long remaining = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+		if (rank > registers[index]) {
+			registers[index] = rank;
+		}
+	}
+
+	/**
+	 * Adds all the elements of another sketch to this one
+	 *
+	 * @return this sketch
+	 */
+	public HyperLogLog merge(HyperLogLog other) {
+		if (other.precision != precision)
+			throw new IllegalArgumentException("Cannot merge sketches with precisions " + precision + " and " + other.precision);
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the estimated number of distinct elements
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+		double estimate = alpha(m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			// Linear counting is more accurate for small cardinalities
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * @return the relative standard error of the estimates
+	 */
+	public double getStandardError() {
+		return 1.04 / Math.sqrt(registers.length);
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public boolean isEmpty() {
+		for (byte register : registers) {
+			if (register != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(registers, (byte) 0);
+	}
+
+	private static double alpha(int m) {
+		switch (m) {
+		case 16:
+			return 0.673;
+		case 32:
+			return 0.697;
+		case 64:
+			return 0.709;
+		default:
+			return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+}
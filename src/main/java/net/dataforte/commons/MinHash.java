@@ -0,0 +1,191 @@
+package net.dataforte.commons;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A MinHash sketch, which keeps the minimum value of a number of independent
+ * hash functions over the elements added to it. The fraction of hash
+ * functions for which two sketches have the same minimum estimates the
+ * Jaccard similarity of their sets, with a standard error of at most
+ * 1 / sqrt(hashes), e.g. 6% with the default 256 hash functions.
+ *
+ * The minima also estimate the number of distinct elements, so the size of
+ * the intersection of two sets can be estimated from their sketches alone.
+ * Sketches with the same number of hash functions and seed can be compared
+ * and merged, merging yields the sketch of the union of their elements.
+ * Sketches are not thread-safe: to build a sketch in parallel, build one per
+ * thread and merge them, as {@link #of(Collection, int)} does.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class MinHash {
+	public static final int DEFAULT_HASHES = 256;
+	public static final long DEFAULT_SEED = 0x6D696E68617368L;
+
+	private final long seed;
+	private final long[] seeds;
+	private final long[] minima;
+
+	public MinHash() {
+		this(DEFAULT_HASHES);
+	}
+
+	public MinHash(int hashes) {
+		this(hashes, DEFAULT_SEED);
+	}
+
+	/**
+	 * @param hashes the number of hash functions
+	 * @param seed the seed from which the hash functions are derived. Only
+	 *        sketches with the same seed can be compared.
+	 */
+	public MinHash(int hashes, long seed) {
+		if (hashes < 1)
+			throw new IllegalArgumentException("At least one hash function is required");
+		this.seed = seed;
+		this.seeds = new long[hashes];
+		this.minima = new long[hashes];
+		long state = seed;
+		for (int i = 0; i < hashes; i++) {
+			state = Hashing.splitMix(state);
+			seeds[i] = state;
+		}
+		clear();
+	}
+
+	/**
+	 * Builds the sketch of a collection, in parallel if the collection is large
+	 */
+	public static MinHash of(Collection<?> elements, final int hashes) {
+		return elements.parallelStream().collect(() -> new MinHash(hashes), MinHash::add, MinHash::merge);
+	}
+
+	/**
+	 * Adds an element, hashing its {@link Object#hashCode()}
+	 */
+	public void add(Object element) {
+		addHash(Hashing.hash(element));
+	}
+
+	public void addAll(Collection<?> elements) {
+		for (Object element : elements) {
+			add(element);
+		}
+	}
+
+	/**
+	 * Adds an element by its 64-bit hash
+	 */
+	public void addHash(long hash) {
+		for (int i = 0; i < minima.length; i++) {
+			// Compared unsigned, so that the minima map onto [0, 1)
+			long h = Hashing.mix(hash ^ seeds[i]) + Long.MIN_VALUE;
+			if (h < minima[i]) {
+				minima[i] = h;
+			}
+		}
+	}
+
+	/**
+	 * Adds all the elements of another sketch to this one
+	 *
+	 * @return this sketch
+	 */
+	public MinHash merge(MinHash other) {
+		checkCompatible(other);
+		for (int i = 0; i < minima.length; i++) {
+			if (other.minima[i] < minima[i]) {
+				minima[i] = other.minima[i];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the estimated Jaccard similarity, i.e. the size of the
+	 *         intersection divided by the size of the union, 0 if both sets
+	 *         are empty
+	 */
+	public double similarity(MinHash other) {
+		checkCompatible(other);
+		int equal = 0;
+		int empty = 0;
+		for (int i = 0; i < minima.length; i++) {
+			if (minima[i] == other.minima[i]) {
+				if (minima[i] == Long.MAX_VALUE) {
+					empty++;
+				} else {
+					equal++;
+				}
+			}
+		}
+		return empty == minima.length ? 0 : (double) equal / minima.length;
+	}
+
+	/**
+	 * @return the estimated number of distinct elements
+	 */
+	public long estimate() {
+		return estimate(minima);
+	}
+
+	/**
+	 * @return the estimated number of distinct elements which both sets contain
+	 */
+	public long estimateIntersection(MinHash other) {
+		double similarity = similarity(other);
+		long[] union = minima.clone();
+		for (int i = 0; i < union.length; i++) {
+			union[i] = Math.min(union[i], other.minima[i]);
+		}
+		return Math.round(similarity * estimate(union));
+	}
+
+	/**
+	 * @return the standard error of the similarity estimates
+	 */
+	public double getStandardError() {
+		return 1 / Math.sqrt(minima.length);
+	}
+
+	public int getHashes() {
+		return minima.length;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public boolean isEmpty() {
+		return minima[0] == Long.MAX_VALUE;
+	}
+
+	public void clear() {
+		Arrays.fill(minima, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Each minimum of n uniform values in [0, 1) has mean 1 / (n + 1), so
+	 * (k - 1) over the sum of k minima estimates n
+	 */
+	private static long estimate(long[] minima) {
+		double sum = 0;
+		for (long minimum : minima) {
+			if (minimum == Long.MAX_VALUE) {
+				return 0;
+			}
+			sum += ((minimum - Long.MIN_VALUE) >>> 11) * 0x1.0p-53;
+		}
+		if (minima.length == 1) {
+			return Math.round(1 / sum - 1);
+		}
+		return Math.round((minima.length - 1) / sum);
+	}
+
+	private void checkCompatible(MinHash other) {
+		if (other.minima.length != minima.length || other.seed != seed)
+			throw new IllegalArgumentException("Sketches with different hash functions cannot be compared");
+	}
+}
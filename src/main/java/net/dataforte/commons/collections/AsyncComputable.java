@@ -0,0 +1,16 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The non-blocking counterpart of {@link Computable}: the result is delivered
+ * through a {@link CompletableFuture} instead of being returned to the caller
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface AsyncComputable<K, V> {
+	CompletableFuture<V> compute(K argument);
+}
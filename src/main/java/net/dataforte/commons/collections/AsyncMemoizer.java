@@ -0,0 +1,114 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import net.dataforte.commons.concurrent.ExecutorUtils;
+
+/**
+ * An {@link AsyncComputable} which caches the results of another
+ * {@link AsyncComputable}. Concurrent callers for the same argument share a
+ * single computation, and no caller thread ever blocks waiting for it.
+ *
+ * A blocking {@link Computable} can be memoized as well: its computations are
+ * run on the supplied {@link Executor}, which can be one returned by
+ * {@link ExecutorUtils#newVirtualThreadExecutor(String)}.
+ *
+ * Each caller receives its own dependent {@link CompletableFuture}, so
+ * cancelling or completing it does not affect the other callers. Computations
+ * which complete exceptionally, or which return a null future, are removed
+ * from the cache.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class AsyncMemoizer<K, V> implements AsyncComputable<K, V> {
+	private final ConcurrentMap<K, CompletableFuture<V>> cache = new ConcurrentHashMap<K, CompletableFuture<V>>();
+	private final AsyncComputable<K, V> computable;
+
+	public AsyncMemoizer(final AsyncComputable<K, V> computable) {
+		this.computable = computable;
+	}
+
+	/**
+	 * Memoizes a blocking {@link Computable}, running its computations on the
+	 * specified {@link Executor}
+	 */
+	public AsyncMemoizer(final Computable<K, V> computable, final Executor executor) {
+		this(new AsyncComputable<K, V>() {
+			public CompletableFuture<V> compute(final K argument) {
+				final CompletableFuture<V> future = new CompletableFuture<V>();
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							future.complete(computable.compute(argument));
+						} catch (ExecutionException e) {
+							future.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+						} catch (Throwable t) {
+							future.completeExceptionally(t);
+						}
+					}
+				});
+				return future;
+			}
+		});
+	}
+
+	public CompletableFuture<V> compute(final K argument) {
+		CompletableFuture<V> future = cache.get(argument);
+		if (future == null) {
+			final CompletableFuture<V> promise = new CompletableFuture<V>();
+			future = cache.putIfAbsent(argument, promise);
+			if (future == null) {
+				future = promise;
+				load(argument, promise);
+			}
+		}
+		return future.thenApply(Function.<V> identity());
+	}
+
+	/**
+	 * @return the number of entries, including those being computed
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Discards the entry for the specified argument, if any
+	 */
+	public void invalidate(K argument) {
+		cache.remove(argument);
+	}
+
+	private void load(final K argument, final CompletableFuture<V> promise) {
+		CompletableFuture<V> loading;
+		try {
+			loading = computable.compute(argument);
+			if (loading == null)
+				throw new NullPointerException("The computation of " + argument + " returned a null future");
+		} catch (Throwable t) {
+			// Also covers a RejectedExecutionException thrown by the executor
+			cache.remove(argument, promise);
+			promise.completeExceptionally(t);
+			return;
+		}
+		loading.whenComplete(new BiConsumer<V, Throwable>() {
+			public void accept(V value, Throwable t) {
+				if (t != null) {
+					cache.remove(argument, promise);
+					promise.completeExceptionally(t);
+				} else {
+					promise.complete(value);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,23 @@
+package net.dataforte.commons.collections;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Computes the values for many arguments in a single invocation, for backends
+ * which are much cheaper to call in bulk than once per argument
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface BulkComputable<K, V> {
+	/**
+	 * @param arguments the arguments for which values are needed
+	 * @return a map from the arguments to their values. Arguments which are
+	 * missing from the map are computed individually by the caller.
+	 */
+	Map<K, V> computeAll(Collection<? extends K> arguments) throws InterruptedException, ExecutionException;
+}
@@ -0,0 +1,265 @@
+package net.dataforte.commons.collections;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.dataforte.commons.slf4j.LoggerFactory;
+
+import org.slf4j.Logger;
+
+/**
+ * A {@link SecondTierStore} which keeps serialized values outside of the Java
+ * heap, either in a direct {@link ByteBuffer} or in a memory-mapped file.
+ *
+ * The buffer is an append-only log of records, each made of the encoded key
+ * and value. Only a small index from keys to record offsets is kept on the
+ * heap. Replacing or removing a value appends a new record, and once the buffer
+ * is full further values are discarded until {@link #clear()} is invoked.
+ *
+ * A record becomes visible only once its header has been written, after its
+ * contents, so a memory-mapped store can be reopened after a restart (even an
+ * abrupt one) and the index is rebuilt by scanning the log. The log is
+ * truncated at the first record whose key cannot be decoded, e.g. because it
+ * was damaged or its class no longer exists.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ByteBufferStore<K, V> implements SecondTierStore<K, V>, Closeable {
+	private static final long MAGIC = 0x4446535430303031L;
+	private static final int FILE_HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int REMOVED = -1;
+
+	private final Logger log = LoggerFactory.make();
+	private final ByteBuffer buffer;
+	private final FileChannel channel;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+	private final Map<K, Integer> index = new HashMap<K, Integer>();
+	private int position;
+
+	/**
+	 * Creates a store on top of a buffer. If the buffer already contains a
+	 * store, its records are loaded.
+	 */
+	public ByteBufferStore(ByteBuffer buffer, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		this(buffer, null, keyCodec, valueCodec);
+	}
+
+	private ByteBufferStore(ByteBuffer buffer, FileChannel channel, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		if (buffer.capacity() < FILE_HEADER_SIZE + RECORD_HEADER_SIZE)
+			throw new IllegalArgumentException("Buffer too small");
+		this.buffer = buffer;
+		this.channel = channel;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		if (buffer.getLong(0) == MAGIC) {
+			scan();
+		} else {
+			buffer.putLong(0, MAGIC);
+			buffer.putInt(FILE_HEADER_SIZE, 0);
+			position = FILE_HEADER_SIZE;
+		}
+	}
+
+	/**
+	 * Creates a store in a direct buffer allocated outside of the Java heap
+	 *
+	 * @param capacity the size of the buffer in bytes
+	 */
+	public static <K, V> ByteBufferStore<K, V> offHeap(int capacity, Codec<K> keyCodec, Codec<V> valueCodec) {
+		try {
+			return new ByteBufferStore<K, V>(ByteBuffer.allocateDirect(capacity), keyCodec, valueCodec);
+		} catch (IOException e) {
+			// An empty buffer is never decoded
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates a store in a memory-mapped file, loading the records it already
+	 * contains. The file is grown to the specified capacity if needed.
+	 *
+	 * @param file the file
+	 * @param capacity the size of the mapping in bytes
+	 */
+	public static <K, V> ByteBufferStore<K, V> mapped(File file, int capacity, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel channel = raf.getChannel();
+		boolean opened = false;
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			ByteBufferStore<K, V> store = new ByteBufferStore<K, V>(buffer, channel, keyCodec, valueCodec);
+			opened = true;
+			return store;
+		} finally {
+			if (!opened) {
+				raf.close();
+			}
+		}
+	}
+
+	public V get(K key) {
+		byte[] bytes;
+		synchronized (this) {
+			Integer offset = index.get(key);
+			if (offset == null) {
+				return null;
+			}
+			int keyLength = buffer.getInt(offset) - 1;
+			int valueLength = buffer.getInt(offset + 4);
+			bytes = new byte[valueLength];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + RECORD_HEADER_SIZE + keyLength);
+			view.get(bytes);
+		}
+		try {
+			return valueCodec.decode(bytes);
+		} catch (IOException e) {
+			log.warn("Could not decode the value of " + key + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public boolean put(K key, V value) {
+		try {
+			return append(key, keyCodec.encode(key), valueCodec.encode(value));
+		} catch (IOException e) {
+			log.warn("Could not encode " + key + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	public void remove(K key) {
+		synchronized (this) {
+			if (!index.containsKey(key)) {
+				return;
+			}
+		}
+		try {
+			append(key, keyCodec.encode(key), null);
+		} catch (IOException e) {
+			log.warn("Could not encode " + key + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of stored values
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the number of bytes available for new records
+	 */
+	public synchronized int getFreeSpace() {
+		return buffer.capacity() - position;
+	}
+
+	/**
+	 * Removes all the values, making the whole buffer available again
+	 */
+	public synchronized void clear() {
+		for (int i = FILE_HEADER_SIZE; i < position; i++) {
+			buffer.put(i, (byte) 0);
+		}
+		index.clear();
+		position = FILE_HEADER_SIZE;
+	}
+
+	/**
+	 * Flushes a memory-mapped store to disk and releases the file. The store
+	 * must not be used afterwards.
+	 */
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			((MappedByteBuffer) buffer).force();
+			channel.close();
+		}
+	}
+
+	private synchronized boolean append(K key, byte[] keyBytes, byte[] valueBytes) {
+		int valueLength = valueBytes != null ? valueBytes.length : 0;
+		long required = (long) RECORD_HEADER_SIZE + keyBytes.length + valueLength;
+		if (position + required > buffer.capacity()) {
+			if (valueBytes == null) {
+				// Without room for the tombstone the value is still dropped from the index
+				index.remove(key);
+			}
+			return false;
+		}
+		ByteBuffer view = buffer.duplicate();
+		view.position(position + RECORD_HEADER_SIZE);
+		view.put(keyBytes);
+		if (valueBytes != null) {
+			view.put(valueBytes);
+		}
+		int next = view.position();
+		if (next + 4 <= buffer.capacity()) {
+			buffer.putInt(next, 0);
+		}
+		buffer.putInt(position + 4, valueBytes != null ? valueLength : REMOVED);
+		// Writing the key length last commits the record
+		buffer.putInt(position, keyBytes.length + 1);
+		if (valueBytes != null) {
+			index.put(key, position);
+		} else {
+			index.remove(key);
+		}
+		position = next;
+		return true;
+	}
+
+	/**
+	 * Rebuilds the index from the records in the buffer, stopping at the first
+	 * uncommitted or corrupted record
+	 */
+	private void scan() {
+		int offset = FILE_HEADER_SIZE;
+		int capacity = buffer.capacity();
+		while (offset + RECORD_HEADER_SIZE <= capacity) {
+			int keyLength = buffer.getInt(offset) - 1;
+			int valueLength = buffer.getInt(offset + 4);
+			if (keyLength < 0 || valueLength < REMOVED) {
+				break;
+			}
+			long end = (long) offset + RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+			if (end > capacity) {
+				break;
+			}
+			byte[] keyBytes = new byte[keyLength];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + RECORD_HEADER_SIZE);
+			view.get(keyBytes);
+			K key;
+			try {
+				key = keyCodec.decode(keyBytes);
+			} catch (IOException e) {
+				// e.g. a damaged record or a key class which no longer exists
+				log.warn("Could not decode the key of the record at " + offset + ", discarding the rest of the log: " + e.getMessage());
+				break;
+			}
+			if (valueLength == REMOVED) {
+				index.remove(key);
+			} else {
+				index.put(key, offset);
+			}
+			offset = (int) end;
+		}
+		position = offset;
+		if (position + 4 <= capacity) {
+			buffer.putInt(position, 0);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package net.dataforte.commons.collections;
+
+import java.io.IOException;
+
+/**
+ * Converts objects to and from their binary representation
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <T>
+ */
+public interface Codec<T> {
+	byte[] encode(T object) throws IOException;
+
+	T decode(byte[] bytes) throws IOException;
+}
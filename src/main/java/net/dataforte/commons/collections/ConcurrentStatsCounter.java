@@ -0,0 +1,138 @@
+package net.dataforte.commons.collections;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.dataforte.commons.concurrent.Histogram;
+
+/**
+ * A thread-safe {@link StatsCounter} based on striped {@link LongAdder}s, so
+ * that concurrent lookups do not contend on the same counter, and a
+ * {@link Histogram} of computation times. It can be registered with the
+ * platform MBeanServer to expose the statistics over JMX.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class ConcurrentStatsCounter implements StatsCounter, MemoizerStatsMXBean {
+	public static final String JMX_DOMAIN = "net.dataforte.commons";
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder waitCount = new LongAdder();
+	private final LongAdder loadSuccessCount = new LongAdder();
+	private final LongAdder loadFailureCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private final Histogram loadTimes = new Histogram();
+
+	public void recordHit() {
+		hitCount.increment();
+	}
+
+	public void recordMiss() {
+		missCount.increment();
+	}
+
+	public void recordWait() {
+		waitCount.increment();
+	}
+
+	public void recordLoadSuccess(long loadTime) {
+		loadSuccessCount.increment();
+		loadTimes.record(loadTime);
+	}
+
+	public void recordLoadFailure(long loadTime) {
+		loadFailureCount.increment();
+		loadTimes.record(loadTime);
+	}
+
+	public void recordEviction() {
+		evictionCount.increment();
+	}
+
+	public MemoizerStats snapshot() {
+		return new MemoizerStats(hitCount.sum(), missCount.sum(), waitCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+				loadTimes.getSum(), evictionCount.sum(), loadTimes.getValueAtPercentile(50), loadTimes.getValueAtPercentile(99),
+				loadTimes.getMax());
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public double getHitRate() {
+		return snapshot().getHitRate();
+	}
+
+	public long getWaitCount() {
+		return waitCount.sum();
+	}
+
+	public long getLoadSuccessCount() {
+		return loadSuccessCount.sum();
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount.sum();
+	}
+
+	public double getAverageLoadPenalty() {
+		return snapshot().getAverageLoadPenalty();
+	}
+
+	public long getMedianLoadTime() {
+		return loadTimes.getValueAtPercentile(50);
+	}
+
+	public long getP99LoadTime() {
+		return loadTimes.getValueAtPercentile(99);
+	}
+
+	public long getMaxLoadTime() {
+		return loadTimes.getMax();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	public void reset() {
+		hitCount.reset();
+		missCount.reset();
+		waitCount.reset();
+		loadSuccessCount.reset();
+		loadFailureCount.reset();
+		evictionCount.reset();
+		loadTimes.reset();
+	}
+
+	/**
+	 * Registers this counter with the platform MBeanServer as
+	 * <code>net.dataforte.commons:type=Memoizer,name=<i>name</i></code>
+	 *
+	 * @param name the name under which to register the counter
+	 * @return the {@link ObjectName} of the registered MBean
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Memoizer,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Unregisters an MBean previously registered with {@link #registerMBean(String)}
+	 */
+	public void unregisterMBean(ObjectName objectName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+}
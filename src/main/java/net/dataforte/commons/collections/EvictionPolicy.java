@@ -0,0 +1,51 @@
+package net.dataforte.commons.collections;
+
+import java.util.Collection;
+
+/**
+ * An EvictionPolicy decides which keys a bounded {@link Memoizer} should
+ * discard once the total weight of its completed entries exceeds a maximum.
+ *
+ * Implementations do not need to be thread-safe: the {@link Memoizer} invokes
+ * all methods while holding its own eviction lock.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ */
+public interface EvictionPolicy<K> {
+	/**
+	 * Records a read of a key which is already tracked by this policy
+	 *
+	 * @param key the key which was read
+	 */
+	void recordAccess(K key);
+
+	/**
+	 * Starts tracking a key (or updates its weight if it is already tracked)
+	 * and collects the keys which must be evicted to stay within the maximum
+	 * weight. The added key itself may be among the evicted ones.
+	 *
+	 * @param key the key to track
+	 * @param weight the weight of the entry associated with the key
+	 * @param evicted a collection to which the evicted keys are added
+	 */
+	void add(K key, long weight, Collection<K> evicted);
+
+	/**
+	 * Stops tracking a key
+	 *
+	 * @param key the key to remove
+	 */
+	void remove(K key);
+
+	/**
+	 * @return the sum of the weights of all the tracked keys
+	 */
+	long getWeightedSize();
+
+	/**
+	 * @return the maximum weight allowed by this policy
+	 */
+	long getMaximumWeight();
+}
@@ -0,0 +1,57 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.TimeUnit;
+
+import net.dataforte.commons.concurrent.BackoffPolicy;
+
+/**
+ * Determines what a {@link Memoizer} does with a computation which has thrown
+ * an exception. All the callers waiting on the failed computation receive the
+ * exception; the policy decides for how long later callers receive it too
+ * before the computation is attempted again. Only one caller performs the new
+ * attempt, the others share its outcome as usual.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class FailurePolicy {
+	private static final FailurePolicy EVICT = new FailurePolicy(null);
+
+	private final BackoffPolicy backoff;
+
+	private FailurePolicy(BackoffPolicy backoff) {
+		this.backoff = backoff;
+	}
+
+	/**
+	 * @return a policy which discards failures immediately, so the next caller
+	 *         attempts the computation again
+	 */
+	public static FailurePolicy evict() {
+		return EVICT;
+	}
+
+	/**
+	 * @return a policy which caches failures for a fixed amount of time
+	 */
+	public static FailurePolicy cacheFor(long duration, TimeUnit unit) {
+		return new FailurePolicy(BackoffPolicy.fixed(duration, unit));
+	}
+
+	/**
+	 * @return a policy which caches failures for a time determined by the
+	 *         number of consecutive failures of the same argument
+	 */
+	public static FailurePolicy retryWithBackoff(BackoffPolicy backoff) {
+		return new FailurePolicy(backoff);
+	}
+
+	/**
+	 * @param failures the number of consecutive failures, starting at 1
+	 * @param previousDelay the delay returned for the previous failure
+	 * @return the time in nanoseconds during which the failure is returned to callers
+	 */
+	public long getRetryDelayNanos(int failures, long previousDelay) {
+		return backoff == null ? 0 : backoff.getDelayNanos(failures, previousDelay);
+	}
+}
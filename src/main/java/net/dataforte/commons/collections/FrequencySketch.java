@@ -0,0 +1,106 @@
+package net.dataforte.commons.collections;
+
+/**
+ * A Count-Min sketch of 4-bit counters used to estimate how often a key has
+ * been seen recently. Each long in the table holds sixteen counters and every
+ * key is mapped to four of them, one per hash function. Once the number of
+ * increments reaches ten times the maximum size, all the counters are halved so
+ * that the frequencies favour recent activity.
+ *
+ * The table is sized by the number of keys being tracked, and grows with it
+ * through {@link #ensureCapacity(long)}.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Tristan Tarrant
+ */
+class FrequencySketch {
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_COUNT = 15;
+
+	private long[] table;
+	private int tableMask;
+	private int sampleSize;
+	private int size;
+
+	FrequencySketch(long expectedSize) {
+		ensureCapacity(expectedSize);
+	}
+
+	/**
+	 * Grows the table so that it can track at least the specified number of
+	 * keys. The counters are discarded when the table grows.
+	 */
+	void ensureCapacity(long expectedSize) {
+		int capacity = (int) Math.min(Math.max(expectedSize, 8), 1 << 30);
+		if (table != null && table.length >= capacity) {
+			return;
+		}
+		int tableSize = Integer.highestOneBit(capacity - 1) << 1;
+		this.table = new long[tableSize];
+		this.tableMask = tableSize - 1;
+		this.sampleSize = (int) Math.min(10L * tableSize, Integer.MAX_VALUE);
+		this.size = 0;
+	}
+
+	/**
+	 * @return the estimated number of occurrences of the key, at most 15
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < 4; i++) {
+			int count = (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Increments the counters of the key, halving all counters when the
+	 * sample size is reached
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int offset = offsetOf(hash, i);
+			if (((table[index] >>> offset) & 0xfL) != MAX_COUNT) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size >>>= 1;
+	}
+
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return ((int) h) & tableMask;
+	}
+
+	private static int offsetOf(int hash, int i) {
+		// Selects one of the sixteen 4-bit counters in the long
+		return ((hash >>> (i << 3)) & 0xf) << 2;
+	}
+
+	private static int spread(int h) {
+		h ^= h >>> 17;
+		h *= 0xed5ad4bb;
+		h ^= h >>> 11;
+		h *= 0xac4c1b51;
+		h ^= h >>> 15;
+		return h;
+	}
+}
@@ -0,0 +1,555 @@
+package net.dataforte.commons.collections;
+
+import java.util.Arrays;
+
+/**
+ * A compressed bitmap of ints, in the style of Roaring bitmaps. Values are
+ * partitioned by their upper 16 bits into chunks, and each chunk is stored
+ * either as a sorted array of its lower 16 bits, while it has at most 4096
+ * values, or as a 65536-bit bitmap. Sparse sets therefore take 2 bytes per
+ * value and dense sets 1 bit per value.
+ *
+ * Intersections of dense chunks are computed a 64-bit word at a time with
+ * {@link Long#bitCount(long)}, which the JIT compiles to a single population
+ * count instruction, and {@link #andCardinality(IntBitmap)} does not allocate.
+ *
+ * Values are ordered as unsigned ints, so negative values follow the positive
+ * ones. IntBitmaps are not thread-safe, but the set operations do not modify
+ * their operands, which may be shared once they are fully built.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class IntBitmap {
+	static final int ARRAY_MAXIMUM = 4096;
+	static final int WORDS = 1024;
+
+	private char[] keys;
+	private Container[] containers;
+	private int size;
+
+	public IntBitmap() {
+		this(new char[4], new Container[4], 0);
+	}
+
+	private IntBitmap(char[] keys, Container[] containers, int size) {
+		this.keys = keys;
+		this.containers = containers;
+		this.size = size;
+	}
+
+	/**
+	 * @return a bitmap containing the specified values, in any order
+	 */
+	public static IntBitmap of(int... values) {
+		IntBitmap bitmap = new IntBitmap();
+		for (int value : values) {
+			bitmap.add(value);
+		}
+		return bitmap;
+	}
+
+	public void add(int value) {
+		char key = (char) (value >>> 16);
+		int i = indexOf(key);
+		if (i < 0) {
+			i = ~i;
+			insert(i, key, new ArrayContainer(new char[4], 0));
+		}
+		containers[i] = containers[i].add((char) value);
+	}
+
+	public boolean contains(int value) {
+		int i = indexOf((char) (value >>> 16));
+		return i >= 0 && containers[i].contains((char) value);
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public long cardinality() {
+		long cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the number of values contained in both bitmaps
+	 */
+	public long andCardinality(IntBitmap other) {
+		long cardinality = 0;
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			int c = keys[i] - other.keys[j];
+			if (c == 0) {
+				cardinality += containers[i].andCardinality(other.containers[j]);
+				i++;
+				j++;
+			} else if (c < 0) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return cardinality;
+	}
+
+	/**
+	 * @return a bitmap of the values contained in both bitmaps
+	 */
+	public IntBitmap and(IntBitmap other) {
+		IntBitmap result = new IntBitmap(new char[Math.min(size, other.size)], new Container[Math.min(size, other.size)], 0);
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			int c = keys[i] - other.keys[j];
+			if (c == 0) {
+				result.append(keys[i], containers[i].and(other.containers[j]));
+				i++;
+				j++;
+			} else if (c < 0) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a bitmap of the values contained in either bitmap
+	 */
+	public IntBitmap or(IntBitmap other) {
+		IntBitmap result = new IntBitmap(new char[size + other.size], new Container[size + other.size], 0);
+		int i = 0, j = 0;
+		while (i < size || j < other.size) {
+			int c = i == size ? 1 : j == other.size ? -1 : keys[i] - other.keys[j];
+			if (c == 0) {
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			} else if (c < 0) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else {
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a bitmap of the values contained in this bitmap but not in the other one
+	 */
+	public IntBitmap andNot(IntBitmap other) {
+		IntBitmap result = new IntBitmap(new char[size], new Container[size], 0);
+		int i = 0, j = 0;
+		while (i < size) {
+			int c = j == other.size ? -1 : keys[i] - other.keys[j];
+			if (c == 0) {
+				result.append(keys[i], containers[i].andNot(other.containers[j]));
+				i++;
+				j++;
+			} else if (c < 0) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the values in unsigned order
+	 */
+	public int[] toArray() {
+		long cardinality = cardinality();
+		if (cardinality > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("Too many values for an array: " + cardinality);
+		int[] values = new int[(int) cardinality];
+		int offset = 0;
+		for (int i = 0; i < size; i++) {
+			offset = containers[i].toArray(keys[i] << 16, values, offset);
+		}
+		return values;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof IntBitmap)) {
+			return false;
+		}
+		IntBitmap other = (IntBitmap) obj;
+		return size == other.size && cardinality() == other.cardinality() && andCardinality(other) == cardinality();
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private int indexOf(char key) {
+		// The keys are usually few, and the last one is the most likely target when values are added in order
+		if (size > 0 && keys[size - 1] == key) {
+			return size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private void insert(int i, char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+			containers = Arrays.copyOf(containers, Math.max(4, size * 2));
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		size++;
+	}
+
+	/**
+	 * Appends a container with a key greater than all others, skipping empty ones
+	 */
+	private void append(char key, Container container) {
+		if (container.cardinality() > 0) {
+			keys[size] = key;
+			containers[size] = container;
+			size++;
+		}
+	}
+
+	/**
+	 * The lower 16 bits of the values sharing the same upper 16 bits.
+	 * Operations return a container of the representation which suits the
+	 * result, possibly the receiver itself.
+	 */
+	abstract static class Container {
+		abstract Container add(char value);
+
+		abstract boolean contains(char value);
+
+		abstract int cardinality();
+
+		abstract int andCardinality(Container other);
+
+		abstract Container and(Container other);
+
+		abstract Container or(Container other);
+
+		abstract Container andNot(Container other);
+
+		abstract Container copy();
+
+		abstract int toArray(int high, int[] out, int offset);
+	}
+
+	static final class ArrayContainer extends Container {
+		char[] values;
+		int size;
+
+		ArrayContainer(char[] values, int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		@Override
+		Container add(char value) {
+			int i = size > 0 && values[size - 1] < value ? ~size : Arrays.binarySearch(values, 0, size, value);
+			if (i >= 0) {
+				return this;
+			}
+			if (size == ARRAY_MAXIMUM) {
+				return toBitmap().add(value);
+			}
+			i = ~i;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.max(4, Math.min(size * 2, ARRAY_MAXIMUM)));
+			}
+			System.arraycopy(values, i, values, i + 1, size - i);
+			values[i] = value;
+			size++;
+			return this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		int andCardinality(Container other) {
+			if (other instanceof BitmapContainer) {
+				long[] words = ((BitmapContainer) other).words;
+				int count = 0;
+				for (int i = 0; i < size; i++) {
+					count += (int) (words[values[i] >>> 6] >>> values[i]) & 1;
+				}
+				return count;
+			}
+			ArrayContainer o = (ArrayContainer) other;
+			int count = 0;
+			int i = 0, j = 0;
+			while (i < size && j < o.size) {
+				char x = values[i];
+				char y = o.values[j];
+				count += x == y ? 1 : 0;
+				i += x <= y ? 1 : 0;
+				j += x >= y ? 1 : 0;
+			}
+			return count;
+		}
+
+		@Override
+		Container and(Container other) {
+			char[] result = new char[size];
+			int count = 0;
+			if (other instanceof BitmapContainer) {
+				BitmapContainer o = (BitmapContainer) other;
+				for (int i = 0; i < size; i++) {
+					result[count] = values[i];
+					count += o.bit(values[i]);
+				}
+			} else {
+				ArrayContainer o = (ArrayContainer) other;
+				int i = 0, j = 0;
+				while (i < size && j < o.size) {
+					char x = values[i];
+					char y = o.values[j];
+					result[count] = x;
+					count += x == y ? 1 : 0;
+					i += x <= y ? 1 : 0;
+					j += x >= y ? 1 : 0;
+				}
+			}
+			return new ArrayContainer(result, count);
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+			ArrayContainer o = (ArrayContainer) other;
+			if (size + o.size > ARRAY_MAXIMUM) {
+				BitmapContainer result = toBitmap();
+				for (int j = 0; j < o.size; j++) {
+					result.add(o.values[j]);
+				}
+				return result.cardinality > ARRAY_MAXIMUM ? result : result.toArrayContainer();
+			}
+			char[] result = new char[size + o.size];
+			int count = 0;
+			int i = 0, j = 0;
+			while (i < size && j < o.size) {
+				char x = values[i];
+				char y = o.values[j];
+				result[count++] = x <= y ? x : y;
+				i += x <= y ? 1 : 0;
+				j += x >= y ? 1 : 0;
+			}
+			System.arraycopy(values, i, result, count, size - i);
+			count += size - i;
+			System.arraycopy(o.values, j, result, count, o.size - j);
+			return new ArrayContainer(result, count + o.size - j);
+		}
+
+		@Override
+		Container andNot(Container other) {
+			char[] result = new char[size];
+			int count = 0;
+			if (other instanceof BitmapContainer) {
+				BitmapContainer o = (BitmapContainer) other;
+				for (int i = 0; i < size; i++) {
+					result[count] = values[i];
+					count += 1 - o.bit(values[i]);
+				}
+				return new ArrayContainer(result, count);
+			}
+			ArrayContainer o = (ArrayContainer) other;
+			int i = 0, j = 0;
+			while (i < size && j < o.size) {
+				char x = values[i];
+				char y = o.values[j];
+				result[count] = x;
+				count += x < y ? 1 : 0;
+				i += x <= y ? 1 : 0;
+				j += x >= y ? 1 : 0;
+			}
+			System.arraycopy(values, i, result, count, size - i);
+			return new ArrayContainer(result, count + size - i);
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, size), size);
+		}
+
+		@Override
+		int toArray(int high, int[] out, int offset) {
+			for (int i = 0; i < size; i++) {
+				out[offset++] = high | values[i];
+			}
+			return offset;
+		}
+
+		BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer(new long[WORDS], 0);
+			for (int i = 0; i < size; i++) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+	}
+
+	static final class BitmapContainer extends Container {
+		final long[] words;
+		int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		int bit(char value) {
+			return (int) (words[value >>> 6] >>> value) & 1;
+		}
+
+		@Override
+		Container add(char value) {
+			long word = words[value >>> 6];
+			long updated = word | (1L << value);
+			words[value >>> 6] = updated;
+			cardinality += word != updated ? 1 : 0;
+			return this;
+		}
+
+		@Override
+		boolean contains(char value) {
+			return bit(value) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		int andCardinality(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.andCardinality(this);
+			}
+			long[] o = ((BitmapContainer) other).words;
+			int count = 0;
+			for (int i = 0; i < WORDS; i++) {
+				count += Long.bitCount(words[i] & o[i]);
+			}
+			return count;
+		}
+
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			long[] o = ((BitmapContainer) other).words;
+			long[] result = new long[WORDS];
+			int count = 0;
+			for (int i = 0; i < WORDS; i++) {
+				result[i] = words[i] & o[i];
+				count += Long.bitCount(result[i]);
+			}
+			return compact(result, count);
+		}
+
+		@Override
+		Container or(Container other) {
+			if (other instanceof ArrayContainer) {
+				BitmapContainer result = (BitmapContainer) copy();
+				ArrayContainer o = (ArrayContainer) other;
+				for (int i = 0; i < o.size; i++) {
+					result.add(o.values[i]);
+				}
+				return result;
+			}
+			long[] o = ((BitmapContainer) other).words;
+			long[] result = new long[WORDS];
+			int count = 0;
+			for (int i = 0; i < WORDS; i++) {
+				result[i] = words[i] | o[i];
+				count += Long.bitCount(result[i]);
+			}
+			return new BitmapContainer(result, count);
+		}
+
+		@Override
+		Container andNot(Container other) {
+			long[] result = words.clone();
+			if (other instanceof ArrayContainer) {
+				ArrayContainer o = (ArrayContainer) other;
+				for (int i = 0; i < o.size; i++) {
+					result[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+				}
+			} else {
+				long[] o = ((BitmapContainer) other).words;
+				for (int i = 0; i < WORDS; i++) {
+					result[i] &= ~o[i];
+				}
+			}
+			int count = 0;
+			for (int i = 0; i < WORDS; i++) {
+				count += Long.bitCount(result[i]);
+			}
+			return compact(result, count);
+		}
+
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		int toArray(int high, int[] out, int offset) {
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					out[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		ArrayContainer toArrayContainer() {
+			int[] values = new int[cardinality];
+			toArray(0, values, 0);
+			char[] chars = new char[cardinality];
+			for (int i = 0; i < cardinality; i++) {
+				chars[i] = (char) values[i];
+			}
+			return new ArrayContainer(chars, cardinality);
+		}
+
+		private static Container compact(long[] words, int cardinality) {
+			BitmapContainer result = new BitmapContainer(words, cardinality);
+			return cardinality > ARRAY_MAXIMUM ? result : result.toArrayContainer();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link Computable} specialized for int arguments, avoiding boxing
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <V>
+ */
+public interface IntComputable<V> {
+	V compute(int argument) throws InterruptedException, ExecutionException;
+}
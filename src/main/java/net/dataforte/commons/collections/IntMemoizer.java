@@ -0,0 +1,230 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A memoizer for {@link IntComputable}s. It behaves like {@link Memoizer}
+ * (concurrent callers for the same argument share a single computation and
+ * failed computations are discarded), but it stores the keys unboxed in
+ * open-addressing hash tables: a memoized value costs an int and a reference
+ * instead of a map node, a boxed key and a {@link FutureTask}.
+ *
+ * The tables are split into segments, each guarded by a {@link StampedLock}.
+ * Lookups of memoized values use optimistic reads, so they neither block nor
+ * allocate; only misses take the write lock.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <V>
+ */
+public class IntMemoizer<V> {
+	private static final Object NULL = new Object();
+
+	private final IntComputable<V> computable;
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	public IntMemoizer(IntComputable<V> computable) {
+		this(computable, 16, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param computable the {@link IntComputable} to memoize
+	 * @param initialCapacity the number of entries which can be stored without resizing
+	 * @param concurrencyLevel the expected number of concurrently updating threads
+	 */
+	public IntMemoizer(IntComputable<V> computable, int initialCapacity, int concurrencyLevel) {
+		this.computable = computable;
+		int segmentCount = PrimitiveTables.segmentCount(concurrencyLevel);
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		this.segments = new Segment[segmentCount];
+		int segmentCapacity = PrimitiveTables.tableSize(initialCapacity / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public V compute(final int argument) throws InterruptedException, ExecutionException {
+		int hash = PrimitiveTables.hash(argument);
+		Segment segment = segments[(int) ((hash & 0xFFFFFFFFL) >>> segmentShift)];
+		Object value = segment.get(argument, hash);
+		if (value == null) {
+			value = segment.load(argument, hash, new Callable<Object>() {
+				public Object call() throws Exception {
+					V v = computable.compute(argument);
+					return v != null ? v : NULL;
+				}
+			});
+		}
+		if (value instanceof Loading) {
+			value = ((Loading) value).get();
+		}
+		return value == NULL ? null : (V) value;
+	}
+
+	/**
+	 * @return the number of entries, including those being computed
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			long stamp = segment.readLock();
+			try {
+				size += segment.size;
+			} finally {
+				segment.unlockRead(stamp);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * A computation in progress, stored in the table until it completes
+	 */
+	static final class Loading extends FutureTask<Object> {
+		Loading(Callable<Object> callable) {
+			super(callable);
+		}
+	}
+
+	static final class Table {
+		final int[] keys;
+		final Object[] values;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new int[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * @return the slot of the key, or the complement of the free slot where it should be inserted
+		 */
+		int indexOf(int key, int hash) {
+			for (int i = hash & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				if (values[i] == null) {
+					return ~i;
+				} else if (keys[i] == key) {
+					return i;
+				}
+			}
+			// Only reachable by an optimistic read racing with a writer
+			return ~0;
+		}
+	}
+
+	static final class Segment extends StampedLock {
+		private static final long serialVersionUID = 1L;
+
+		Table table;
+		int size;
+
+		Segment(int capacity) {
+			table = new Table(capacity);
+		}
+
+		Object get(int key, int hash) {
+			long stamp = tryOptimisticRead();
+			Object value = find(table, key, hash);
+			if (!validate(stamp)) {
+				stamp = readLock();
+				try {
+					value = find(table, key, hash);
+				} finally {
+					unlockRead(stamp);
+				}
+			}
+			return value;
+		}
+
+		private static Object find(Table table, int key, int hash) {
+			int i = table.indexOf(key, hash);
+			return i >= 0 ? table.values[i] : null;
+		}
+
+		Object load(int key, int hash, Callable<Object> callable) throws InterruptedException {
+			Loading loading;
+			long stamp = writeLock();
+			try {
+				int i = table.indexOf(key, hash);
+				if (i >= 0) {
+					return table.values[i];
+				}
+				loading = new Loading(callable);
+				insert(key, hash, ~i, loading);
+			} finally {
+				unlockWrite(stamp);
+			}
+			loading.run();
+			Object value;
+			try {
+				value = loading.get();
+			} catch (ExecutionException e) {
+				value = null;
+			}
+			stamp = writeLock();
+			try {
+				int i = table.indexOf(key, hash);
+				if (i >= 0 && table.values[i] == loading) {
+					if (value != null) {
+						table.values[i] = value;
+					} else {
+						delete(i);
+					}
+				}
+			} finally {
+				unlockWrite(stamp);
+			}
+			return loading;
+		}
+
+		private void insert(int key, int hash, int slot, Object value) {
+			if (size + 1 > PrimitiveTables.threshold(table.mask + 1)) {
+				if (table.mask + 1 == PrimitiveTables.MAXIMUM_CAPACITY)
+					throw new IllegalStateException("Maximum capacity exceeded");
+				resize();
+				slot = ~table.indexOf(key, hash);
+			}
+			table.keys[slot] = key;
+			table.values[slot] = value;
+			size++;
+		}
+
+		private void resize() {
+			Table old = table;
+			Table resized = new Table((old.mask + 1) << 1);
+			for (int i = 0; i <= old.mask; i++) {
+				if (old.values[i] != null) {
+					int slot = ~resized.indexOf(old.keys[i], PrimitiveTables.hash(old.keys[i]));
+					resized.keys[slot] = old.keys[i];
+					resized.values[slot] = old.values[i];
+				}
+			}
+			table = resized;
+		}
+
+		/**
+		 * Deletes a slot, shifting back the following entries of the probe
+		 * sequence so that no tombstones are needed
+		 */
+		private void delete(int i) {
+			Table t = table;
+			t.values[i] = null;
+			size--;
+			for (int j = (i + 1) & t.mask; t.values[j] != null; j = (j + 1) & t.mask) {
+				int ideal = PrimitiveTables.hash(t.keys[j]) & t.mask;
+				if (PrimitiveTables.canShift(ideal, i, j)) {
+					t.keys[i] = t.keys[j];
+					t.values[i] = t.values[j];
+					t.values[j] = null;
+					i = j;
+				}
+			}
+		}
+	}
+}
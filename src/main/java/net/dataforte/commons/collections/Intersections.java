@@ -0,0 +1,332 @@
+package net.dataforte.commons.collections;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Strategies for counting the elements of a collection which are contained in
+ * another one, i.e. the size of their intersection.
+ *
+ * {@link #count(Collection, Collection)} picks a strategy from the types and
+ * sizes of the collections: sorted sets sharing the same ordering are merged,
+ * sets are probed directly, and otherwise the smaller side is copied into a
+ * hash table. When the hash table is built here, very large inputs are probed
+ * in parallel on the common {@link ForkJoinPool}: sets supplied by the caller
+ * are always probed on the calling thread, as they are not generally safe for
+ * concurrent reads. The individual strategies are also available, e.g.
+ * for sorted lists, whose ordering cannot be detected.
+ *
+ * All strategies count duplicate elements of the first collection once for
+ * each occurrence, like invoking {@link Collection#contains(Object)} on the
+ * second collection for every element of the first one would.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public final class Intersections {
+	/**
+	 * Inputs with at least this many elements to probe are split across the
+	 * common {@link ForkJoinPool}
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 16;
+	/**
+	 * The number of elements probed by each fork/join task
+	 */
+	static final int PARALLEL_CHUNK = 1 << 13;
+	/**
+	 * Sorted inputs whose sizes differ by more than this factor are galloped
+	 * instead of merged
+	 */
+	static final int GALLOP_RATIO = 32;
+
+	private Intersections() {
+	}
+
+	/**
+	 * Counts the elements of one which are contained in two, choosing the
+	 * strategy from the types and sizes of the collections
+	 */
+	public static <T> int count(Collection<? extends T> one, Collection<? extends T> two) {
+		if (one.isEmpty() || two.isEmpty()) {
+			return 0;
+		}
+		if (one instanceof SortedSet && two instanceof SortedSet) {
+			Comparator<? super T> comparator = comparatorOf(one);
+			if (sameOrdering(comparator, comparatorOf(two))) {
+				return sortedSetCount(one, two, comparator);
+			}
+		}
+		if (two instanceof Set) {
+			// Sets already answer contains() efficiently, with their own notion of equality
+			return probeCount(one, (Set<?>) two);
+		}
+		if (one.size() < two.size()) {
+			return hashSmallerCount(one, two);
+		}
+		return hashCount(one, two);
+	}
+
+	/**
+	 * Copies two into a hash set and probes it with each element of one, in
+	 * parallel if one is large. If two is already a {@link HashSet} it is
+	 * probed directly, on the calling thread.
+	 */
+	public static int hashCount(Collection<?> one, Collection<?> two) {
+		if (two instanceof HashSet) {
+			return probeCount(one, (Set<?>) two);
+		}
+		Set<?> set = toHashSet(two);
+		// The set is private to this invocation, so it can be read concurrently
+		if (one.size() >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+			return parallelCount(one.toArray(), set);
+		}
+		return probeCount(one, set);
+	}
+
+	/**
+	 * Copies the elements of one, together with their number of occurrences,
+	 * into a hash table which is probed with each element of two. This only
+	 * allocates memory proportional to the size of one.
+	 */
+	public static int hashSmallerCount(Collection<?> one, Collection<?> two) {
+		Map<Object, int[]> occurrences = new HashMap<Object, int[]>(capacityFor(one.size()));
+		for (Object element : one) {
+			int[] n = occurrences.get(element);
+			if (n == null) {
+				occurrences.put(element, new int[] { 1 });
+			} else {
+				n[0]++;
+			}
+		}
+		int count = 0;
+		for (Object element : two) {
+			// Removing the element ensures duplicates in two are only counted once
+			int[] n = occurrences.remove(element);
+			if (n != null) {
+				count += n[0];
+				if (occurrences.isEmpty()) {
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Probes set with each element of one, on the calling thread
+	 */
+	public static int probeCount(Collection<?> one, Set<?> set) {
+		int count = 0;
+		for (Object element : one) {
+			if (set.contains(element)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Probes set with each of the elements, splitting them across the common
+	 * {@link ForkJoinPool}. The set must be safe for concurrent reads, e.g. a
+	 * {@link HashSet} which is not modified concurrently: sets whose reads
+	 * have side effects, such as those backed by a
+	 * {@link java.util.WeakHashMap}, are not.
+	 */
+	public static int parallelCount(Object[] elements, Set<?> set) {
+		return ForkJoinPool.commonPool().invoke(new ProbeTask(elements, 0, elements.length, set));
+	}
+
+	/**
+	 * Counts the common elements of two sorted collections by merging their
+	 * iterators. Both must be sorted according to the comparator, or to the
+	 * natural ordering of their elements if it is null.
+	 */
+	public static <T> int mergeCount(Collection<? extends T> one, Collection<? extends T> two, Comparator<? super T> comparator) {
+		Iterator<? extends T> i = one.iterator();
+		Iterator<? extends T> j = two.iterator();
+		if (!i.hasNext() || !j.hasNext()) {
+			return 0;
+		}
+		int count = 0;
+		T a = i.next();
+		T b = j.next();
+		while (true) {
+			int c = compare(comparator, a, b);
+			if (c == 0) {
+				++count;
+			}
+			if (c <= 0) {
+				// Duplicates in one are all matched against the same element of two
+				if (!i.hasNext()) {
+					return count;
+				}
+				a = i.next();
+			} else {
+				if (!j.hasNext()) {
+					return count;
+				}
+				b = j.next();
+			}
+		}
+	}
+
+	/**
+	 * Counts the common elements of two sorted lists. When their sizes differ
+	 * greatly, each element of the smaller list is located in the larger one
+	 * by exponential search starting from the previous match, which takes
+	 * O(m log(n/m)) comparisons instead of O(n + m); otherwise the lists are
+	 * merged.
+	 */
+	public static <T> int sortedCount(List<? extends T> one, List<? extends T> two, Comparator<? super T> comparator) {
+		int n = one.size();
+		int m = two.size();
+		if (n == 0 || m == 0) {
+			return 0;
+		}
+		if (!(one instanceof RandomAccess && two instanceof RandomAccess) || (n / GALLOP_RATIO < m && m / GALLOP_RATIO < n)) {
+			return mergeCount(one, two, comparator);
+		}
+		int count = 0;
+		if (n < m) {
+			for (int i = 0, j = 0; i < n && j < m; i++) {
+				T a = one.get(i);
+				j = gallop(two, j, a, comparator, false);
+				if (j < m && compare(comparator, a, two.get(j)) == 0) {
+					++count;
+				}
+			}
+		} else {
+			for (int i = 0, j = 0; i < n && j < m; j++) {
+				T b = two.get(j);
+				if (j > 0 && compare(comparator, two.get(j - 1), b) == 0) {
+					continue;
+				}
+				// Every occurrence of b in one is counted
+				i = gallop(one, i, b, comparator, false);
+				int end = gallop(one, i, b, comparator, true);
+				count += end - i;
+				i = end;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the index of the first element at or after from which is not
+	 *         less than key (greater than key if strict), or the size of the
+	 *         list if there is none
+	 */
+	static <T> int gallop(List<? extends T> list, int from, T key, Comparator<? super T> comparator, boolean strict) {
+		int size = list.size();
+		int low = from;
+		int bound = 1;
+		// Find a range [low, high) containing the result by doubling the step
+		int high = from;
+		while (high < size && precedes(comparator, list.get(high), key, strict)) {
+			low = high + 1;
+			high = from + bound;
+			bound <<= 1;
+		}
+		high = Math.min(high, size);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (precedes(comparator, list.get(mid), key, strict)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static <T> boolean precedes(Comparator<? super T> comparator, T element, T key, boolean strict) {
+		int c = compare(comparator, element, key);
+		return strict ? c <= 0 : c < 0;
+	}
+
+	private static <T> int sortedSetCount(Collection<? extends T> one, Collection<? extends T> two, Comparator<? super T> comparator) {
+		int n = one.size();
+		int m = two.size();
+		// Iterating the smaller set and probing the larger tree is cheaper than a full merge
+		if (n / GALLOP_RATIO >= m) {
+			int count = 0;
+			for (Object element : two) {
+				if (one.contains(element)) {
+					++count;
+				}
+			}
+			return count;
+		} else if (m / GALLOP_RATIO >= n) {
+			return probeCount(one, (Set<?>) two);
+		}
+		return mergeCount(one, two, comparator);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Comparator<? super T> comparatorOf(Collection<? extends T> sortedSet) {
+		return (Comparator<? super T>) ((SortedSet<?>) sortedSet).comparator();
+	}
+
+	private static boolean sameOrdering(Comparator<?> a, Comparator<?> b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> int compare(Comparator<? super T> comparator, T a, T b) {
+		return comparator != null ? comparator.compare(a, b) : ((Comparable<? super T>) a).compareTo(b);
+	}
+
+	private static Set<Object> toHashSet(Collection<?> collection) {
+		Set<Object> set = new HashSet<Object>(capacityFor(collection.size()));
+		set.addAll(collection);
+		return set;
+	}
+
+	private static int capacityFor(int size) {
+		return (int) Math.min((long) (size / 0.75f) + 1, 1 << 30);
+	}
+
+	static final class ProbeTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final Object[] elements;
+		private final int from;
+		private final int to;
+		private final Set<?> set;
+
+		ProbeTask(Object[] elements, int from, int to, Set<?> set) {
+			this.elements = elements;
+			this.from = from;
+			this.to = to;
+			this.set = set;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from <= PARALLEL_CHUNK) {
+				int count = 0;
+				for (int i = from; i < to; i++) {
+					if (set.contains(elements[i])) {
+						++count;
+					}
+				}
+				return count;
+			}
+			int mid = (from + to) >>> 1;
+			ProbeTask left = new ProbeTask(elements, from, mid, set);
+			left.fork();
+			int right = new ProbeTask(elements, mid, to, set).compute();
+			return right + left.join();
+		}
+	}
+}
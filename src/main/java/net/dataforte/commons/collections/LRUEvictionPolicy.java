@@ -0,0 +1,64 @@
+package net.dataforte.commons.collections;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link EvictionPolicy} which discards the least recently used keys first
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ */
+public class LRUEvictionPolicy<K> implements EvictionPolicy<K> {
+	private final LinkedHashMap<K, Long> entries = new LinkedHashMap<K, Long>(16, 0.75f, true);
+	private final long maximumWeight;
+	private long weightedSize;
+
+	/**
+	 * @param maximumWeight the maximum total weight. When used with the default
+	 * {@link Weigher} this is the maximum number of entries
+	 */
+	public LRUEvictionPolicy(long maximumWeight) {
+		if (maximumWeight < 0)
+			throw new IllegalArgumentException("maximumWeight must not be negative");
+		this.maximumWeight = maximumWeight;
+	}
+
+	public void recordAccess(K key) {
+		// An access-ordered LinkedHashMap moves the entry to the tail on get()
+		entries.get(key);
+	}
+
+	public void add(K key, long weight, Collection<K> evicted) {
+		Long previous = entries.put(key, weight);
+		if (previous != null) {
+			weightedSize -= previous;
+		}
+		weightedSize += weight;
+		Iterator<Map.Entry<K, Long>> it = entries.entrySet().iterator();
+		while (weightedSize > maximumWeight && it.hasNext()) {
+			Map.Entry<K, Long> eldest = it.next();
+			weightedSize -= eldest.getValue();
+			it.remove();
+			evicted.add(eldest.getKey());
+		}
+	}
+
+	public void remove(K key) {
+		Long weight = entries.remove(key);
+		if (weight != null) {
+			weightedSize -= weight;
+		}
+	}
+
+	public long getWeightedSize() {
+		return weightedSize;
+	}
+
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+}
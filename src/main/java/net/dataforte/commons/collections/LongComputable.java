@@ -0,0 +1,14 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link Computable} specialized for long arguments, avoiding boxing
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <V>
+ */
+public interface LongComputable<V> {
+	V compute(long argument) throws InterruptedException, ExecutionException;
+}
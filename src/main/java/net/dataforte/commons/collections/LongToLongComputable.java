@@ -0,0 +1,14 @@
+package net.dataforte.commons.collections;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link Computable} specialized for long arguments and long results,
+ * avoiding boxing
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public interface LongToLongComputable {
+	long compute(long argument) throws InterruptedException, ExecutionException;
+}
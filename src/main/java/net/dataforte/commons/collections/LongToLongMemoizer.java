@@ -0,0 +1,189 @@
+package net.dataforte.commons.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A memoizer for {@link LongToLongComputable}s. Both keys and values are
+ * stored unboxed in open-addressing hash tables, so a memoized value costs two
+ * longs and a flag. Concurrent callers for the same argument share a single
+ * computation, and failed computations are not memoized.
+ *
+ * The tables are split into segments, each guarded by a {@link StampedLock}.
+ * Lookups of memoized values use optimistic reads, so they neither block nor
+ * allocate. Computations in progress are tracked in a small per-segment map,
+ * so boxing only happens on a miss.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class LongToLongMemoizer {
+	private final LongToLongComputable computable;
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	public LongToLongMemoizer(LongToLongComputable computable) {
+		this(computable, 16, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param computable the {@link LongToLongComputable} to memoize
+	 * @param initialCapacity the number of entries which can be stored without resizing
+	 * @param concurrencyLevel the expected number of concurrently updating threads
+	 */
+	public LongToLongMemoizer(LongToLongComputable computable, int initialCapacity, int concurrencyLevel) {
+		this.computable = computable;
+		int segmentCount = PrimitiveTables.segmentCount(concurrencyLevel);
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		this.segments = new Segment[segmentCount];
+		int segmentCapacity = PrimitiveTables.tableSize(initialCapacity / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	public long compute(final long argument) throws InterruptedException, ExecutionException {
+		int hash = PrimitiveTables.hash(argument);
+		Segment segment = segments[(int) ((hash & 0xFFFFFFFFL) >>> segmentShift)];
+		long stamp = segment.tryOptimisticRead();
+		Table table = segment.table;
+		int i = table.indexOf(argument, hash);
+		long value = i >= 0 ? table.values[i] : 0;
+		if (i >= 0 && segment.validate(stamp)) {
+			return value;
+		}
+		// A miss, or a read racing with a writer: load() checks again under the lock
+		return segment.load(argument, hash, new Callable<Long>() {
+			public Long call() throws Exception {
+				return computable.compute(argument);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of memoized values, excluding those being computed
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			long stamp = segment.readLock();
+			try {
+				size += segment.size;
+			} finally {
+				segment.unlockRead(stamp);
+			}
+		}
+		return size;
+	}
+
+	static final class Table {
+		final long[] keys;
+		final long[] values;
+		final boolean[] used;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			values = new long[capacity];
+			used = new boolean[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * @return the slot of the key, or the complement of the free slot where it should be inserted
+		 */
+		int indexOf(long key, int hash) {
+			for (int i = hash & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				if (!used[i]) {
+					return ~i;
+				} else if (keys[i] == key) {
+					return i;
+				}
+			}
+			// Only reachable by an optimistic read racing with a writer
+			return ~0;
+		}
+	}
+
+	static final class Segment extends StampedLock {
+		private static final long serialVersionUID = 1L;
+
+		final Map<Long, FutureTask<Long>> loading = new HashMap<Long, FutureTask<Long>>();
+		Table table;
+		int size;
+
+		Segment(int capacity) {
+			table = new Table(capacity);
+		}
+
+		long load(long key, int hash, Callable<Long> callable) throws InterruptedException, ExecutionException {
+			FutureTask<Long> task;
+			boolean owner = false;
+			long stamp = writeLock();
+			try {
+				int i = table.indexOf(key, hash);
+				if (i >= 0) {
+					return table.values[i];
+				}
+				task = loading.get(key);
+				if (task == null) {
+					task = new FutureTask<Long>(callable);
+					loading.put(key, task);
+					owner = true;
+				}
+			} finally {
+				unlockWrite(stamp);
+			}
+			if (owner) {
+				task.run();
+				Long value;
+				try {
+					value = task.get();
+				} catch (ExecutionException e) {
+					value = null;
+				}
+				stamp = writeLock();
+				try {
+					loading.remove(key);
+					if (value != null) {
+						insert(key, hash, value);
+					}
+				} finally {
+					unlockWrite(stamp);
+				}
+			}
+			return task.get();
+		}
+
+		private void insert(long key, int hash, long value) {
+			if (size + 1 > PrimitiveTables.threshold(table.mask + 1)) {
+				if (table.mask + 1 == PrimitiveTables.MAXIMUM_CAPACITY)
+					throw new IllegalStateException("Maximum capacity exceeded");
+				resize();
+			}
+			int slot = ~table.indexOf(key, hash);
+			table.keys[slot] = key;
+			table.values[slot] = value;
+			table.used[slot] = true;
+			size++;
+		}
+
+		private void resize() {
+			Table old = table;
+			Table resized = new Table((old.mask + 1) << 1);
+			for (int i = 0; i <= old.mask; i++) {
+				if (old.used[i]) {
+					int slot = ~resized.indexOf(old.keys[i], PrimitiveTables.hash(old.keys[i]));
+					resized.keys[slot] = old.keys[i];
+					resized.values[slot] = old.values[i];
+					resized.used[slot] = true;
+				}
+			}
+			table = resized;
+		}
+	}
+}
@@ -1,42 +1,978 @@
 package net.dataforte.commons.collections;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.dataforte.commons.concurrent.ExecutorUtils;
+import net.dataforte.commons.slf4j.LoggerFactory;
+
+import org.slf4j.Logger;
+
+/**
+ * A {@link Computable} which caches the results of another {@link Computable}.
+ * Concurrent callers for the same argument share a single computation.
+ *
+ * By default the cache is unbounded. Setting an {@link EvictionPolicy} bounds
+ * the total weight of the completed entries, as computed by the {@link Weigher}
+ * (by default every entry weighs 1, so the maximum weight of the policy is the
+ * maximum number of entries). Entries which are still being computed are never
+ * evicted.
+ *
+ * Values for many arguments can be obtained with {@link #computeAll(Collection)},
+ * which hands all the missing arguments to a {@link BulkComputable} at once.
+ *
+ * Entries can also expire a fixed time after they were computed or last read.
+ * Expired entries are removed lazily when they are read or when
+ * {@link #cleanUp()} is invoked. With refresh-after-write, an entry older than
+ * the refresh interval is recomputed on the refresh {@link Executor} the first
+ * time it is read, while callers keep receiving the old value until the new one
+ * is available.
+ *
+ * Computations which throw an exception are handled according to the
+ * {@link FailurePolicy}: by default they are discarded immediately, but they
+ * can also be cached for a fixed time or for a time which grows with the number
+ * of consecutive failures.
+ *
+ * A bounded Memoizer can demote the values it evicts to a
+ * {@link SecondTierStore}, e.g. off-heap or memory-mapped storage, from which
+ * they are promoted back on a miss instead of being recomputed. Values in the
+ * second tier do not expire, but they are discarded when the in-memory entry
+ * expires or is refreshed.
+ *
+ * With weak keys or soft values, entries whose argument or value has been
+ * garbage collected are removed by the callers of {@link #compute(Object)},
+ * {@link #computeAll(Collection)} and {@link #cleanUp()}, which drain a few
+ * references from a {@link ReferenceQueue} each time, so no cleanup thread is
+ * needed. The second tier holds its keys strongly, so it should not be used
+ * together with weak keys.
+ *
+ * Statistics are only recorded if a {@link StatsCounter} has been set.
+ *
+ * The Memoizer should be fully configured before it is used.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
 public class Memoizer<K, V> implements Computable<K, V> {
-    private final ConcurrentMap<K, Future<V>> cache = new ConcurrentHashMap<K, Future<V>>();
+    private static final int DRAIN_THRESHOLD = 64;
+
+    private final ConcurrentMap<Object, Entry<V>> cache = new ConcurrentHashMap<Object, Entry<V>>();
     private final Computable<K, V> computable;
- 
+    private BulkComputable<K, V> bulkComputable;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Logger log = LoggerFactory.make();
+    private EvictionPolicy<K> evictionPolicy;
+    private Weigher<? super K, ? super V> weigher;
+    private long expireAfterWriteNanos;
+    private long expireAfterAccessNanos;
+    private long refreshAfterWriteNanos;
+    private Executor refreshExecutor;
+    private StatsCounter statsCounter;
+    private FailurePolicy failurePolicy = FailurePolicy.evict();
+    private SecondTierStore<K, V> secondTier;
+    private boolean weakKeys;
+    private boolean softValues;
+    private final ReferenceQueue<Object> keyQueue = new ReferenceQueue<Object>();
+    private final ReferenceQueue<Object> valueQueue = new ReferenceQueue<Object>();
+
+    /**
+     * @param computable the {@link Computable} to memoize. If it also implements
+     * {@link BulkComputable} it is used for {@link #computeAll(Collection)} too.
+     */
+    @SuppressWarnings("unchecked")
     public Memoizer(final Computable<K, V> computable) {
         this.computable = computable;
+        if (computable instanceof BulkComputable) {
+            this.bulkComputable = (BulkComputable<K, V>) computable;
+        }
+    }
+
+    public Memoizer(final Computable<K, V> computable, final EvictionPolicy<K> evictionPolicy) {
+        this(computable);
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public BulkComputable<K, V> getBulkComputable() {
+        return bulkComputable;
+    }
+
+    /**
+     * Sets the {@link BulkComputable} used by {@link #computeAll(Collection)}
+     * to compute all the missing values in a single invocation
+     */
+    public void setBulkComputable(BulkComputable<K, V> bulkComputable) {
+        this.bulkComputable = bulkComputable;
+    }
+
+    public EvictionPolicy<K> getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Sets the policy used to bound this Memoizer, or null to make it unbounded
+     */
+    public void setEvictionPolicy(EvictionPolicy<K> evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * Sets the {@link Weigher} used to compute the weight of each entry. If
+     * null, every entry weighs 1.
+     */
+    public void setWeigher(Weigher<? super K, ? super V> weigher) {
+        this.weigher = weigher;
+    }
+
+    /**
+     * Entries are discarded once the specified time has elapsed since they
+     * were computed. A duration of 0 disables expiry after write.
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Entries are discarded once the specified time has elapsed since they
+     * were last read (or computed). A duration of 0 disables expiry after access.
+     */
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        this.expireAfterAccessNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Entries older than the specified time are recomputed in the background
+     * when they are read, and the stale value is returned until the refresh
+     * completes. A duration of 0 disables refreshing.
+     */
+    public void setRefreshAfterWrite(long duration, TimeUnit unit) {
+        this.refreshAfterWriteNanos = unit.toNanos(duration);
+    }
+
+    public Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * Sets the {@link Executor} on which refreshes are performed. If null, a
+     * shared pool of daemon threads is used.
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
     }
- 
+
+    public FailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    /**
+     * Sets the {@link FailurePolicy} which determines for how long a failed
+     * computation is returned to callers before it is attempted again. By
+     * default failures are discarded immediately.
+     */
+    public void setFailurePolicy(FailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy != null ? failurePolicy : FailurePolicy.evict();
+    }
+
+    public SecondTierStore<K, V> getSecondTier() {
+        return secondTier;
+    }
+
+    /**
+     * Sets a {@link SecondTierStore}, such as a {@link ByteBufferStore}, to
+     * which the values evicted by the {@link EvictionPolicy} are demoted. On a
+     * miss the store is checked before computing the value, and values found
+     * there are promoted back to this Memoizer.
+     */
+    public void setSecondTier(SecondTierStore<K, V> secondTier) {
+        this.secondTier = secondTier;
+    }
+
+    public boolean isWeakKeys() {
+        return weakKeys;
+    }
+
+    /**
+     * Holds the arguments through {@link WeakReference}s, so that entries are
+     * discarded once their argument is no longer referenced elsewhere. Weak
+     * keys are compared by identity instead of {@link Object#equals(Object)}.
+     */
+    public void setWeakKeys(boolean weakKeys) {
+        this.weakKeys = weakKeys;
+    }
+
+    public boolean isSoftValues() {
+        return softValues;
+    }
+
+    /**
+     * Holds the computed values through {@link SoftReference}s, so that the
+     * garbage collector may discard them under memory pressure. A collected
+     * value is computed again the next time it is requested.
+     */
+    public void setSoftValues(boolean softValues) {
+        this.softValues = softValues;
+    }
+
+    public StatsCounter getStatsCounter() {
+        return statsCounter;
+    }
+
+    /**
+     * Sets the {@link StatsCounter} which records hits, misses, computation
+     * times and evictions, e.g. a {@link ConcurrentStatsCounter}. If null (the
+     * default) no statistics are kept.
+     */
+    public void setStatsCounter(StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+    }
+
+    /**
+     * @return a snapshot of the statistics, all zeroes if they are not recorded
+     */
+    public MemoizerStats getStats() {
+        StatsCounter stats = statsCounter;
+        return stats != null ? stats.snapshot() : new MemoizerStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * @return the number of entries, including those being computed and those
+     * which have expired or been collected but have not been removed yet
+     */
+    public int size() {
+        return cache.size();
+    }
+
     public V compute(final K argument) throws ExecutionException, InterruptedException {
+        drainReferenceQueues();
         while (true) {
-            Future<V> future = cache.get(argument);
-            if (future == null) {
-                final Callable<V> callable = new Callable<V>() {
-                    public V call() throws ExecutionException, InterruptedException {
-                        return computable.compute(argument);
-                    }
-                };
-                final FutureTask<V> futureTask = new FutureTask<V>(callable);
-                future = cache.putIfAbsent(argument, futureTask);
-                if (future == null) {
-                    future = futureTask;
-                    futureTask.run();
+            Entry<V> entry = lookup(argument);
+            if (entry == null) {
+                final Entry<V> newEntry = newEntry(storeKey(argument), argument);
+                entry = cache.putIfAbsent(newEntry.key, newEntry);
+                if (entry == null) {
+                    entry = newEntry;
+                    load(argument, newEntry);
                 }
             }
             try {
-                return future.get();
+                V value = entry.get();
+                if (value != null || !entry.isCollected()) {
+                    return value;
+                }
+                // The soft value was collected after the lookup
+                collect(entry);
             } catch (final CancellationException e) {
-                cache.remove(argument, future);
+                removeEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the values for all the specified arguments. Memoized values are
+     * returned directly and arguments which are already being computed by other
+     * callers are waited upon, while all the remaining arguments are passed to
+     * the {@link BulkComputable} in a single invocation. If no
+     * {@link BulkComputable} has been set, they are computed one at a time.
+     *
+     * @param arguments the arguments
+     * @return a map from each argument to its value, in iteration order of the arguments
+     */
+    public Map<K, V> computeAll(final Collection<? extends K> arguments) throws ExecutionException, InterruptedException {
+        drainReferenceQueues();
+        Map<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>();
+        final Map<K, Entry<V>> loading = new LinkedHashMap<K, Entry<V>>();
+        final BulkLoad bulkLoad = new BulkLoad();
+        try {
+            for (final K argument : arguments) {
+                if (entries.containsKey(argument)) {
+                    continue;
+                }
+                Entry<V> entry = lookup(argument);
+                if (entry == null) {
+                    final Entry<V> newEntry = new Entry<V>(storeKey(argument), new Callable<V>() {
+                        public V call() throws ExecutionException, InterruptedException {
+                            return bulkLoad.get(argument);
+                        }
+                    }, softValues ? valueQueue : null);
+                    entry = cache.putIfAbsent(newEntry.key, newEntry);
+                    if (entry == null) {
+                        entry = newEntry;
+                        loading.put(argument, newEntry);
+                        if (secondTier != null) {
+                            newEntry.promoted = promote(argument);
+                        }
+                        if (statsCounter != null) {
+                            statsCounter.recordMiss();
+                        }
+                    }
+                }
+                entries.put(argument, entry);
+            }
+        } catch (RuntimeException e) {
+            // e.g. a null argument: the entries inserted so far must not be left
+            // uncomputed, or other callers waiting on them would hang
+            bulkLoad.failure = e;
+            for (Entry<V> entry : loading.values()) {
+                entry.future.run();
+                removeEntry(entry);
+            }
+            throw e;
+        }
+        if (!loading.isEmpty()) {
+            StatsCounter stats = statsCounter;
+            long start = stats != null ? System.nanoTime() : 0;
+            try {
+                Set<K> missing = new LinkedHashSet<K>();
+                for (Map.Entry<K, Entry<V>> e : loading.entrySet()) {
+                    if (e.getValue().promoted == null) {
+                        missing.add(e.getKey());
+                    }
+                }
+                if (bulkComputable != null && !missing.isEmpty()) {
+                    Map<K, V> values = bulkComputable.computeAll(Collections.unmodifiableSet(missing));
+                    if (values != null) {
+                        bulkLoad.values = values;
+                    }
+                }
+            } catch (ExecutionException e) {
+                bulkLoad.failure = e;
+            } catch (InterruptedException e) {
+                bulkLoad.failure = e;
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                bulkLoad.failure = e;
+            } finally {
+                // Complete every entry, so that other callers waiting on them never hang
+                for (Map.Entry<K, Entry<V>> e : loading.entrySet()) {
+                    e.getValue().future.run();
+                }
+                // The bulk computation is recorded as a single load
+                if (stats != null) {
+                    if (bulkLoad.failure == null) {
+                        stats.recordLoadSuccess(System.nanoTime() - start);
+                    } else {
+                        stats.recordLoadFailure(System.nanoTime() - start);
+                    }
+                }
+                for (Map.Entry<K, Entry<V>> e : loading.entrySet()) {
+                    afterFailure(e.getValue());
+                    afterLoad(e.getKey(), e.getValue());
+                }
+            }
+        }
+        Map<K, V> result = new LinkedHashMap<K, V>();
+        for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+            Entry<V> entry = e.getValue();
+            try {
+                V value = entry.get();
+                if (value == null && entry.isCollected()) {
+                    collect(entry);
+                    value = compute(e.getKey());
+                }
+                result.put(e.getKey(), value);
+            } catch (final CancellationException ce) {
+                removeEntry(entry);
+                result.put(e.getKey(), compute(e.getKey()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all the expired entries and those whose key or value has been
+     * collected
+     */
+    public void cleanUp() {
+        drainReferenceQueues();
+        if (!hasTimeouts()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Iterator<Entry<V>> it = cache.values().iterator(); it.hasNext();) {
+            Entry<V> entry = it.next();
+            if (entry.future.isDone() && (entry.failed ? isRetryDue(entry, now) : isExpired(entry, now))) {
+                expire(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the entry for an argument, or null if there is none or it has
+     * expired. Reads of completed entries are recorded for expiry, refresh and
+     * eviction.
+     */
+    private Entry<V> lookup(final K argument) {
+        Entry<V> entry = cache.get(weakKeys ? new LookupKey(argument) : argument);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.future.isDone()) {
+            if (statsCounter != null) {
+                statsCounter.recordHit();
+                statsCounter.recordWait();
+            }
+            return entry;
+        }
+        if (entry.failed) {
+            if (isRetryDue(entry, System.nanoTime())) {
+                return retry(argument, entry);
+            }
+            if (statsCounter != null) {
+                statsCounter.recordHit();
+            }
+            return entry;
+        }
+        if (hasTimeouts()) {
+            long now = System.nanoTime();
+            if (isExpired(entry, now)) {
+                expire(entry);
+                return null;
+            }
+            if (expireAfterAccessNanos > 0) {
+                entry.accessTime = now;
             }
+            if (refreshAfterWriteNanos > 0 && now - entry.writeTime >= refreshAfterWriteNanos) {
+                refresh(argument, entry);
+            }
+        }
+        if (evictionPolicy != null) {
+            recordAccess(entry.key);
+        }
+        if (statsCounter != null) {
+            statsCounter.recordHit();
+        }
+        return entry;
+    }
+
+    /**
+     * Runs the computation of a new entry on the calling thread
+     */
+    private void load(K argument, Entry<V> entry) {
+        if (secondTier != null) {
+            entry.promoted = promote(argument);
+        }
+        StatsCounter stats = statsCounter;
+        if (stats == null) {
+            entry.future.run();
+        } else {
+            stats.recordMiss();
+            long start = System.nanoTime();
+            entry.future.run();
+            recordLoad(stats, entry, System.nanoTime() - start);
         }
+        afterFailure(entry);
+        afterLoad(argument, entry);
+    }
+
+    /**
+     * Looks up a value in the second tier. A store which fails, e.g. on an I/O
+     * error or a corrupt record, is treated as a miss: the entry is already
+     * visible to other callers, so it must be computed regardless.
+     */
+    private V promote(K argument) {
+        try {
+            return secondTier.get(argument);
+        } catch (RuntimeException e) {
+            log.warn("Second tier lookup of " + argument + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Applies the {@link FailurePolicy} to a completed entry
+     */
+    private void afterFailure(Entry<V> entry) {
+        if (!entry.failed) {
+            return;
+        }
+        long delay = failurePolicy.getRetryDelayNanos(entry.failures + 1, entry.previousRetryDelay);
+        if (delay <= 0) {
+            // Callers already waiting on the entry still receive the exception
+            removeEntry(entry);
+        }
+        entry.retryDelay = Math.max(delay, 0);
+    }
+
+    /**
+     * Replaces a failed entry whose retry delay has elapsed with a new
+     * computation. Only one caller succeeds in replacing the entry: the others
+     * receive whichever entry is current, or null if there is none.
+     */
+    private Entry<V> retry(K argument, Entry<V> failed) {
+        Entry<V> entry = newEntry(failed.key, argument);
+        entry.failures = failed.failures + 1;
+        entry.previousRetryDelay = failed.retryDelay;
+        if (cache.replace(failed.key, failed, entry)) {
+            load(argument, entry);
+            return entry;
+        }
+        return cache.get(failed.key);
+    }
+
+    private boolean isRetryDue(Entry<V> entry, long now) {
+        // A negative delay means that the failure policy has not been applied yet
+        long delay = entry.retryDelay;
+        return delay >= 0 && now - entry.writeTime >= delay;
+    }
+
+    private static void recordLoad(StatsCounter stats, Entry<?> entry, long loadTime) {
+        if (entry.failed) {
+            stats.recordLoadFailure(loadTime);
+        } else {
+            stats.recordLoadSuccess(loadTime);
+        }
+    }
+
+    private void expire(Entry<V> entry) {
+        if (removeEntry(entry)) {
+            if (statsCounter != null) {
+                statsCounter.recordEviction();
+            }
+            // Values are not demoted on expiry, and must not be promoted after it
+            K argument = argumentOf(entry);
+            if (secondTier != null && argument != null) {
+                secondTier.remove(argument);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry whose key or value has been garbage collected
+     */
+    private void collect(Entry<V> entry) {
+        if (removeEntry(entry) && statsCounter != null) {
+            statsCounter.recordEviction();
+        }
+    }
+
+    /**
+     * Removes the entries whose keys or values have been collected since the
+     * last invocation. Callers pay for a bounded number of removals, so that
+     * no cleanup thread is needed.
+     */
+    private void drainReferenceQueues() {
+        if (weakKeys) {
+            for (int i = 0; i < DRAIN_THRESHOLD; i++) {
+                Object key = keyQueue.poll();
+                if (key == null) {
+                    break;
+                }
+                // A collected key is only equal to itself
+                Entry<V> entry = cache.get(key);
+                if (entry != null) {
+                    collect(entry);
+                }
+            }
+        }
+        if (softValues) {
+            for (int i = 0; i < DRAIN_THRESHOLD; i++) {
+                SoftValue<?> value = (SoftValue<?>) valueQueue.poll();
+                if (value == null) {
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                Entry<V> entry = (Entry<V>) value.entry;
+                collect(entry);
+            }
+        }
+    }
+
+    private Object storeKey(K argument) {
+        return weakKeys ? new WeakKey(argument, keyQueue) : argument;
+    }
+
+    /**
+     * @return the argument of an entry, or null if its weak key has been collected
+     */
+    @SuppressWarnings("unchecked")
+    private K argumentOf(Entry<V> entry) {
+        return (K) (entry.key instanceof WeakKey ? ((WeakKey) entry.key).get() : entry.key);
+    }
+
+    private Entry<V> newEntry(Object key, final K argument) {
+        return new Entry<V>(key, new Callable<V>() {
+            public V call() throws ExecutionException, InterruptedException {
+                return computable.compute(argument);
+            }
+        }, softValues ? valueQueue : null);
+    }
+
+    private boolean hasTimeouts() {
+        return expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0 || refreshAfterWriteNanos > 0;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return (expireAfterWriteNanos > 0 && now - entry.writeTime >= expireAfterWriteNanos)
+                || (expireAfterAccessNanos > 0 && now - entry.accessTime >= expireAfterAccessNanos);
+    }
+
+    /**
+     * Recomputes the value of an entry in the background, replacing the entry
+     * once the new value is available. Only one refresh per entry is started.
+     */
+    private void refresh(final K argument, final Entry<V> entry) {
+        if (!Entry.REFRESHING.compareAndSet(entry, 0, 1)) {
+            return;
+        }
+        Executor executor = refreshExecutor != null ? refreshExecutor : DefaultRefreshExecutor.INSTANCE;
+        Runnable task = new Runnable() {
+            public void run() {
+                Entry<V> refreshed = newEntry(entry.key, argument);
+                StatsCounter stats = statsCounter;
+                long start = stats != null ? System.nanoTime() : 0;
+                refreshed.future.run();
+                if (stats != null) {
+                    recordLoad(stats, refreshed, System.nanoTime() - start);
+                }
+                try {
+                    refreshed.future.get();
+                } catch (Exception e) {
+                    // Keep serving the stale value, a later read will retry
+                    log.warn("Refresh of " + argument + " failed: " + e.getMessage());
+                    entry.refreshing = 0;
+                    return;
+                }
+                if (cache.replace(entry.key, entry, refreshed)) {
+                    if (secondTier != null) {
+                        secondTier.remove(argument);
+                    }
+                    afterLoad(argument, refreshed);
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Keep serving the stale value, a later read will retry
+            log.warn("Refresh of " + argument + " rejected: " + e.getMessage());
+            entry.refreshing = 0;
+        }
+    }
+
+    /**
+     * Removes an entry, keeping the eviction policy in sync
+     *
+     * @return true if the entry was removed
+     */
+    private boolean removeEntry(Entry<V> entry) {
+        EvictionPolicy<Object> policy = policy();
+        if (policy == null) {
+            return cache.remove(entry.key, entry);
+        }
+        evictionLock.lock();
+        try {
+            if (cache.remove(entry.key, entry)) {
+                if (entry.future.isDone()) {
+                    policy.remove(entry.key);
+                }
+                return true;
+            }
+            return false;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Registers a completed entry with the eviction policy and removes the
+     * entries it selects as victims
+     */
+    private void afterLoad(K argument, Entry<V> entry) {
+        EvictionPolicy<Object> policy = policy();
+        if (policy == null || entry.future.isCancelled()) {
+            return;
+        }
+        long weight = 1;
+        if (weigher != null) {
+            try {
+                weight = weigher.weigh(argument, entry.get());
+            } catch (Exception e) {
+                // Failed computations are accounted with the default weight
+            }
+        }
+        List<Object> evicted = new ArrayList<Object>();
+        List<Entry<V>> demoted = null;
+        evictionLock.lock();
+        try {
+            // Another caller may have replaced the entry in the meantime
+            if (cache.get(entry.key) != entry) {
+                return;
+            }
+            policy.add(entry.key, weight, evicted);
+            for (Object victim : evicted) {
+                Entry<V> victimEntry = cache.get(victim);
+                // Entries being computed are not tracked by the policy
+                if (victimEntry != null && victimEntry.future.isDone() && cache.remove(victim, victimEntry)) {
+                    if (statsCounter != null) {
+                        statsCounter.recordEviction();
+                    }
+                    // Promoted values are still in the second tier
+                    if (secondTier != null && !victimEntry.failed && !victimEntry.fromSecondTier) {
+                        if (demoted == null) {
+                            demoted = new ArrayList<Entry<V>>();
+                        }
+                        demoted.add(victimEntry);
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        if (demoted != null) {
+            demote(demoted);
+        }
+    }
+
+    /**
+     * Moves evicted values to the second tier, outside of the eviction lock
+     * since encoding them may be expensive
+     */
+    private void demote(List<Entry<V>> demoted) {
+        for (Entry<V> entry : demoted) {
+            try {
+                K argument = argumentOf(entry);
+                V value = entry.get();
+                // Collected keys and values cannot be demoted
+                if (argument != null && value != null) {
+                    secondTier.put(argument, value);
+                }
+            } catch (Exception ex) {
+                // Completed entries which did not fail cannot throw
+            }
+        }
+    }
+
+    private void recordAccess(Object key) {
+        // Access recording is best-effort: under contention reordering is
+        // skipped rather than making readers wait for the lock
+        if (evictionLock.tryLock()) {
+            try {
+                policy().recordAccess(key);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The eviction policy tracks the keys of the map, which are wrapped when
+     * weak keys are used
+     */
+    @SuppressWarnings("unchecked")
+    private EvictionPolicy<Object> policy() {
+        return (EvictionPolicy<Object>) (EvictionPolicy<?>) evictionPolicy;
+    }
+
+    /**
+     * A cache entry: the map key, the computation shared by all callers
+     * together with the timestamps used for expiry and its outcome. These are
+     * written before the computation completes, so they are visible to anyone
+     * who sees it done. Failed entries also carry the number of consecutive
+     * failures which preceded them and the delay before they may be retried.
+     * An entry whose value was found in the second tier holds it in promoted,
+     * which is set by the loading thread before the computation runs. With
+     * soft values the computation yields a {@link SoftValue} instead of the
+     * value itself.
+     */
+    static final class Entry<V> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Entry> REFRESHING = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "refreshing");
+
+        final Object key;
+        final FutureTask<Object> future;
+        volatile long writeTime;
+        volatile long accessTime;
+        volatile int refreshing;
+        volatile boolean failed;
+        int failures;
+        long previousRetryDelay;
+        volatile long retryDelay = -1;
+        V promoted;
+        boolean fromSecondTier;
+
+        Entry(Object key, final Callable<V> callable, final ReferenceQueue<Object> valueQueue) {
+            this.key = key;
+            this.future = new FutureTask<Object>(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        V value;
+                        if (promoted != null) {
+                            value = promoted;
+                            // The second tier keeps the value, the entry must not pin it
+                            promoted = null;
+                            fromSecondTier = true;
+                        } else {
+                            value = callable.call();
+                        }
+                        return valueQueue != null && value != null ? new SoftValue<V>(value, valueQueue, Entry.this) : value;
+                    } catch (Exception e) {
+                        failed = true;
+                        throw e;
+                    } finally {
+                        writeTime = accessTime = System.nanoTime();
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return the value, or null if it was null or it has been collected
+         */
+        @SuppressWarnings("unchecked")
+        V get() throws ExecutionException, InterruptedException {
+            Object value = future.get();
+            return (V) (value instanceof SoftValue ? ((SoftValue<?>) value).get() : value);
+        }
+
+        /**
+         * @return true if the entry completed with a soft value which has been collected
+         */
+        boolean isCollected() {
+            if (!future.isDone() || failed || future.isCancelled()) {
+                return false;
+            }
+            try {
+                Object value = future.get();
+                return value instanceof SoftValue && ((SoftValue<?>) value).get() == null;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A weakly referenced key. Keys are compared by identity, because the
+     * referent can no longer be compared once it has been collected.
+     */
+    static final class WeakKey extends WeakReference<Object> {
+        private final int hash;
+
+        WeakKey(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            Object key = get();
+            if (key == null) {
+                return false;
+            } else if (obj instanceof WeakKey) {
+                return key == ((WeakKey) obj).get();
+            } else if (obj instanceof LookupKey) {
+                return key == ((LookupKey) obj).key;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A strongly referenced key used to look up {@link WeakKey}s without
+     * registering a reference
+     */
+    static final class LookupKey {
+        private final Object key;
+        private final int hash;
+
+        LookupKey(Object key) {
+            this.key = key;
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof LookupKey) {
+                return key == ((LookupKey) obj).key;
+            } else if (obj instanceof WeakKey) {
+                return key == ((WeakKey) obj).get();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A softly referenced value, which knows the entry to remove once it has
+     * been collected
+     */
+    static final class SoftValue<V> extends SoftReference<V> {
+        final Entry<?> entry;
+
+        SoftValue(V value, ReferenceQueue<Object> queue, Entry<?> entry) {
+            super(value, queue);
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The outcome of a {@link BulkComputable} invocation, shared by the
+     * entries it computes. Arguments missing from the result are computed
+     * individually.
+     */
+    private final class BulkLoad {
+        Map<K, V> values = Collections.emptyMap();
+        Exception failure;
+
+        V get(K argument) throws ExecutionException, InterruptedException {
+            if (failure instanceof ExecutionException) {
+                throw (ExecutionException) failure;
+            } else if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            if (values.containsKey(argument)) {
+                return values.get(argument);
+            }
+            return computable.compute(argument);
+        }
+    }
+
+    /**
+     * Lazily created pool used for refreshes when no executor has been set
+     */
+    private static final class DefaultRefreshExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(ExecutorUtils.daemonThreadFactory("Memoizer-refresh"));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package net.dataforte.commons.collections;
+
+/**
+ * An immutable snapshot of the statistics of a {@link Memoizer}
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class MemoizerStats {
+	private final long hitCount;
+	private final long missCount;
+	private final long waitCount;
+	private final long loadSuccessCount;
+	private final long loadFailureCount;
+	private final long totalLoadTime;
+	private final long evictionCount;
+	private final long medianLoadTime;
+	private final long p99LoadTime;
+	private final long maxLoadTime;
+
+	public MemoizerStats(long hitCount, long missCount, long waitCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+			long evictionCount, long medianLoadTime, long p99LoadTime, long maxLoadTime) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.waitCount = waitCount;
+		this.loadSuccessCount = loadSuccessCount;
+		this.loadFailureCount = loadFailureCount;
+		this.totalLoadTime = totalLoadTime;
+		this.evictionCount = evictionCount;
+		this.medianLoadTime = medianLoadTime;
+		this.p99LoadTime = p99LoadTime;
+		this.maxLoadTime = maxLoadTime;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getRequestCount() {
+		return hitCount + missCount;
+	}
+
+	/**
+	 * @return the ratio of hits to requests, or 1 if there have been no requests
+	 */
+	public double getHitRate() {
+		long requests = getRequestCount();
+		return requests == 0 ? 1.0 : (double) hitCount / requests;
+	}
+
+	/**
+	 * @return the number of hits which had to wait for a computation in progress
+	 */
+	public long getWaitCount() {
+		return waitCount;
+	}
+
+	public long getLoadSuccessCount() {
+		return loadSuccessCount;
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount;
+	}
+
+	/**
+	 * @return the total time spent computing values, in nanoseconds
+	 */
+	public long getTotalLoadTime() {
+		return totalLoadTime;
+	}
+
+	/**
+	 * @return the average time spent computing a value, in nanoseconds
+	 */
+	public double getAverageLoadPenalty() {
+		long loads = loadSuccessCount + loadFailureCount;
+		return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the median computation time, in nanoseconds
+	 */
+	public long getMedianLoadTime() {
+		return medianLoadTime;
+	}
+
+	/**
+	 * @return the 99th percentile of the computation time, in nanoseconds
+	 */
+	public long getP99LoadTime() {
+		return p99LoadTime;
+	}
+
+	/**
+	 * @return the longest computation time, in nanoseconds
+	 */
+	public long getMaxLoadTime() {
+		return maxLoadTime;
+	}
+
+	@Override
+	public String toString() {
+		return "MemoizerStats[hitCount=" + hitCount + ", missCount=" + missCount + ", waitCount=" + waitCount + ", loadSuccessCount="
+				+ loadSuccessCount + ", loadFailureCount=" + loadFailureCount + ", totalLoadTime=" + totalLoadTime + ", evictionCount="
+				+ evictionCount + ", medianLoadTime=" + medianLoadTime + ", p99LoadTime=" + p99LoadTime + ", maxLoadTime=" + maxLoadTime + "]";
+	}
+}
@@ -0,0 +1,36 @@
+package net.dataforte.commons.collections;
+
+/**
+ * The JMX view of the statistics of a {@link Memoizer}. Times are in nanoseconds.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public interface MemoizerStatsMXBean {
+	long getHitCount();
+
+	long getMissCount();
+
+	double getHitRate();
+
+	long getWaitCount();
+
+	long getLoadSuccessCount();
+
+	long getLoadFailureCount();
+
+	double getAverageLoadPenalty();
+
+	long getMedianLoadTime();
+
+	long getP99LoadTime();
+
+	long getMaxLoadTime();
+
+	long getEvictionCount();
+
+	/**
+	 * Resets all the counters
+	 */
+	void reset();
+}
@@ -0,0 +1,348 @@
+package net.dataforte.commons.collections;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the overlap and the Jaccard similarity between all the pairs of a
+ * list of collections, replacing nested invocations of
+ * CollectionUtils.collectionCompare.
+ *
+ * The elements are indexed once in an inverted index, which maps each
+ * distinct element to the collections containing it. The overlaps of a
+ * collection with all the others are then accumulated by walking the index
+ * entries of its elements, so pairs without any element in common cost
+ * nothing. Rows are computed in parallel on a {@link ForkJoinPool} and every
+ * pair is handed to a {@link PairConsumer} as soon as it is computed, so the
+ * N<sup>2</sup> results never need to be held in memory unless
+ * {@link #overlapMatrix()} or {@link #similarityMatrix()} are used.
+ *
+ * Unlike collectionCompare, collections are treated as sets: duplicate
+ * elements are counted once. The collections must not be modified while the
+ * index is being built.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class OverlapIndex {
+	/**
+	 * The number of rows computed by each fork/join task, which share their
+	 * accumulators
+	 */
+	static final int ROWS_PER_TASK = 8;
+
+	public enum Measure {
+		/**
+		 * The number of common elements
+		 */
+		OVERLAP,
+		/**
+		 * The number of common elements divided by the number of elements of the union
+		 */
+		JACCARD
+	}
+
+	/**
+	 * Receives the pairs computed by an {@link OverlapIndex}. It is invoked
+	 * concurrently by the worker threads, so it must be thread-safe.
+	 */
+	public interface PairConsumer {
+		void accept(int first, int second, int overlap, double similarity);
+	}
+
+	private final int[][] elementsOf;
+	private final int[][] postings;
+
+	/**
+	 * Builds the inverted index of the collections
+	 */
+	public OverlapIndex(List<? extends Collection<?>> collections) {
+		int n = collections.size();
+		Map<Object, Integer> ids = new HashMap<Object, Integer>();
+		int[] postingSizes = new int[16];
+		elementsOf = new int[n][];
+		for (int i = 0; i < n; i++) {
+			Collection<?> collection = collections.get(i);
+			int[] elements = new int[collection.size()];
+			int count = 0;
+			for (Object element : collection) {
+				Integer id = ids.get(element);
+				if (id == null) {
+					id = ids.size();
+					ids.put(element, id);
+					if (id == postingSizes.length) {
+						postingSizes = Arrays.copyOf(postingSizes, id * 2);
+					}
+				}
+				elements[count++] = id;
+			}
+			// Sorting makes duplicates adjacent, so that they can be dropped
+			Arrays.sort(elements, 0, count);
+			int distinct = 0;
+			for (int k = 0; k < count; k++) {
+				if (k == 0 || elements[k] != elements[k - 1]) {
+					elements[distinct++] = elements[k];
+					postingSizes[elements[k]]++;
+				}
+			}
+			elementsOf[i] = Arrays.copyOf(elements, distinct);
+		}
+		postings = new int[ids.size()][];
+		for (int e = 0; e < postings.length; e++) {
+			postings[e] = new int[postingSizes[e]];
+		}
+		// Collections are visited in order, so every posting list ends up sorted
+		int[] filled = new int[postings.length];
+		for (int i = 0; i < n; i++) {
+			for (int e : elementsOf[i]) {
+				postings[e][filled[e]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of collections
+	 */
+	public int size() {
+		return elementsOf.length;
+	}
+
+	/**
+	 * @return the number of distinct elements of a collection
+	 */
+	public int getDistinctSize(int collection) {
+		return elementsOf[collection].length;
+	}
+
+	/**
+	 * Computes all the pairs of collections with at least one element in
+	 * common on the common {@link ForkJoinPool}. Each pair is passed to the
+	 * consumer once, with first &lt; second.
+	 */
+	public void forEachPair(PairConsumer consumer) {
+		forEachPair(consumer, ForkJoinPool.commonPool());
+	}
+
+	public void forEachPair(PairConsumer consumer, ForkJoinPool pool) {
+		pool.invoke(new RowTask(0, size(), 0, null, consumer));
+	}
+
+	/**
+	 * Computes, for each collection, the k other collections which are most
+	 * similar to it according to the measure, on the common
+	 * {@link ForkJoinPool}. They are passed to the consumer most similar
+	 * first, with the collection as the first argument. Collections with no
+	 * element in common are never included.
+	 */
+	public void forEachTopK(int k, Measure measure, PairConsumer consumer) {
+		forEachTopK(k, measure, consumer, ForkJoinPool.commonPool());
+	}
+
+	public void forEachTopK(int k, Measure measure, PairConsumer consumer, ForkJoinPool pool) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be positive: " + k);
+		pool.invoke(new RowTask(0, size(), k, measure, consumer));
+	}
+
+	/**
+	 * @return the symmetric matrix of the overlaps, whose diagonal holds the
+	 *         distinct sizes of the collections
+	 */
+	public int[][] overlapMatrix() {
+		final int[][] matrix = new int[size()][size()];
+		for (int i = 0; i < matrix.length; i++) {
+			matrix[i][i] = getDistinctSize(i);
+		}
+		forEachPair(new PairConsumer() {
+			public void accept(int first, int second, int overlap, double similarity) {
+				matrix[first][second] = overlap;
+				matrix[second][first] = overlap;
+			}
+		});
+		return matrix;
+	}
+
+	/**
+	 * @return the symmetric matrix of the Jaccard similarities
+	 */
+	public double[][] similarityMatrix() {
+		final double[][] matrix = new double[size()][size()];
+		for (int i = 0; i < matrix.length; i++) {
+			matrix[i][i] = 1;
+		}
+		forEachPair(new PairConsumer() {
+			public void accept(int first, int second, int overlap, double similarity) {
+				matrix[first][second] = similarity;
+				matrix[second][first] = similarity;
+			}
+		});
+		return matrix;
+	}
+
+	private double similarity(int first, int second, int overlap) {
+		return (double) overlap / (elementsOf[first].length + elementsOf[second].length - overlap);
+	}
+
+	/**
+	 * Computes a range of rows. With k = 0 each row i yields its pairs with
+	 * the collections after i, otherwise its k best pairs with all the others.
+	 */
+	final class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final int k;
+		private final Measure measure;
+		private final PairConsumer consumer;
+
+		RowTask(int from, int to, int k, Measure measure, PairConsumer consumer) {
+			this.from = from;
+			this.to = to;
+			this.k = k;
+			this.measure = measure;
+			this.consumer = consumer;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ROWS_PER_TASK) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new RowTask(from, mid, k, measure, consumer), new RowTask(mid, to, k, measure, consumer));
+				return;
+			}
+			int[] counts = new int[size()];
+			int[] touched = new int[size()];
+			TopK top = k > 0 ? new TopK(Math.min(k, size())) : null;
+			for (int i = from; i < to; i++) {
+				int t = 0;
+				for (int e : elementsOf[i]) {
+					int[] posting = postings[e];
+					// Postings are sorted, so the collections after i are at the end
+					int start = k > 0 ? 0 : posting.length;
+					if (k == 0) {
+						while (start > 0 && posting[start - 1] > i) {
+							start--;
+						}
+					}
+					for (int p = start; p < posting.length; p++) {
+						int j = posting[p];
+						if (j != i && counts[j]++ == 0) {
+							touched[t++] = j;
+						}
+					}
+				}
+				if (top == null) {
+					for (int p = 0; p < t; p++) {
+						int j = touched[p];
+						consumer.accept(i, j, counts[j], similarity(i, j, counts[j]));
+						counts[j] = 0;
+					}
+				} else {
+					for (int p = 0; p < t; p++) {
+						int j = touched[p];
+						top.offer(j, measure == Measure.OVERLAP ? counts[j] : similarity(i, j, counts[j]));
+					}
+					for (int p = 0, n = top.drain(); p < n; p++) {
+						int j = top.ids[p];
+						consumer.accept(i, j, counts[j], similarity(i, j, counts[j]));
+					}
+					for (int p = 0; p < t; p++) {
+						counts[touched[p]] = 0;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A bounded min-heap keeping the k highest scores, ties going to the
+	 * lowest id
+	 */
+	static final class TopK {
+		final int[] ids;
+		final double[] scores;
+		int size;
+
+		TopK(int k) {
+			ids = new int[k];
+			scores = new double[k];
+		}
+
+		void offer(int id, double score) {
+			if (size < ids.length) {
+				ids[size] = id;
+				scores[size] = score;
+				up(size++);
+			} else if (worse(0, id, score)) {
+				ids[0] = id;
+				scores[0] = score;
+				down(0, size);
+			}
+		}
+
+		/**
+		 * Sorts the heap so that the best entry comes first and empties it
+		 *
+		 * @return the number of entries
+		 */
+		int drain() {
+			int n = size;
+			for (int end = n - 1; end > 0; end--) {
+				swap(0, end);
+				down(0, end);
+			}
+			size = 0;
+			return n;
+		}
+
+		/**
+		 * @return true if the entry at slot i ranks below the specified one
+		 */
+		private boolean worse(int i, int id, double score) {
+			return scores[i] < score || (scores[i] == score && ids[i] > id);
+		}
+
+		private void up(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!worse(i, ids[parent], scores[parent])) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void down(int i, int n) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= n) {
+					break;
+				}
+				if (child + 1 < n && worse(child + 1, ids[child], scores[child])) {
+					child++;
+				}
+				if (!worse(child, ids[i], scores[i])) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int a, int b) {
+			int id = ids[a];
+			ids[a] = ids[b];
+			ids[b] = id;
+			double score = scores[a];
+			scores[a] = scores[b];
+			scores[b] = score;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package net.dataforte.commons.collections;
+
+/**
+ * Helpers shared by the open-addressing tables of the primitive memoizers
+ *
+ * @author Tristan Tarrant
+ *
+ */
+final class PrimitiveTables {
+	static final int MAXIMUM_SEGMENTS = 1 << 16;
+	static final int MAXIMUM_CAPACITY = 1 << 30;
+	static final int MINIMUM_CAPACITY = 8;
+
+	private PrimitiveTables() {
+	}
+
+	static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * @return the power of two nearest to the concurrency level
+	 */
+	static int segmentCount(int concurrencyLevel) {
+		int count = Integer.highestOneBit(Math.max(1, Math.min(concurrencyLevel, MAXIMUM_SEGMENTS)));
+		return count < concurrencyLevel && count < MAXIMUM_SEGMENTS ? count << 1 : count;
+	}
+
+	/**
+	 * @return a power of two table size which can hold the specified number
+	 *         of entries without exceeding the load factor
+	 */
+	static int tableSize(int expectedSize) {
+		long size = Math.max(MINIMUM_CAPACITY, (long) Math.ceil(expectedSize / 0.75));
+		return (int) Math.min(Long.highestOneBit(size - 1) << 1, MAXIMUM_CAPACITY);
+	}
+
+	/**
+	 * @return the number of entries above which a table is resized
+	 */
+	static int threshold(int capacity) {
+		return capacity == MAXIMUM_CAPACITY ? capacity - 1 : capacity - (capacity >>> 2);
+	}
+
+	/**
+	 * In linear probing, tells whether the entry in slot j, whose hash maps to
+	 * slot ideal, can be moved to the free slot i, i.e. whether ideal does not
+	 * lie cyclically in (i, j]
+	 */
+	static boolean canShift(int ideal, int i, int j) {
+		if (i <= j) {
+			return ideal <= i || ideal > j;
+		}
+		return ideal <= i && ideal > j;
+	}
+}
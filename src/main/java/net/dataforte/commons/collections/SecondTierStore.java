@@ -0,0 +1,30 @@
+package net.dataforte.commons.collections;
+
+/**
+ * A store for the values evicted from the in-memory tier of a {@link Memoizer}.
+ * Implementations must be thread-safe and are allowed to discard values, e.g.
+ * when they are full.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface SecondTierStore<K, V> {
+	/**
+	 * @return the value stored for the key, or null
+	 */
+	V get(K key);
+
+	/**
+	 * Stores a value, replacing any previous value for the key
+	 *
+	 * @return true if the value was stored
+	 */
+	boolean put(K key, V value);
+
+	/**
+	 * Removes the value stored for the key, if any
+	 */
+	void remove(K key);
+}
@@ -0,0 +1,38 @@
+package net.dataforte.commons.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * A {@link Codec} based on Java serialization
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <T>
+ */
+public class SerializingCodec<T extends Serializable> implements Codec<T> {
+
+	public byte[] encode(T object) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(object);
+		oos.close();
+		return baos.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	public T decode(byte[] bytes) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (T) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			ois.close();
+		}
+	}
+}
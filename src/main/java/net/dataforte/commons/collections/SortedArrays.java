@@ -0,0 +1,445 @@
+package net.dataforte.commons.collections;
+
+import java.util.Arrays;
+
+/**
+ * Set operations on sorted arrays of primitive ints and longs, such as sets
+ * of identifiers. Every array must be sorted in ascending order without
+ * duplicates, see {@link #isSet(int[])}.
+ *
+ * The counting operations and those writing to a caller-supplied array do not
+ * allocate. Arrays of similar length are merged with a branch-free loop,
+ * which avoids branch mispredictions on random data; when one array is much
+ * shorter than the other, its elements are located in the longer one by
+ * exponential search instead. For dense sets, {@link IntBitmap} is faster and
+ * smaller.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public final class SortedArrays {
+	/**
+	 * Arrays whose lengths differ by more than this factor are galloped
+	 * instead of merged
+	 */
+	static final int GALLOP_RATIO = 32;
+
+	private SortedArrays() {
+	}
+
+	/**
+	 * @return the number of elements contained in both a and b
+	 */
+	public static int intersectionCount(int[] a, int[] b) {
+		int n = a.length;
+		int m = b.length;
+		if (n == 0 || m == 0) {
+			return 0;
+		}
+		if (n / GALLOP_RATIO >= m) {
+			return gallopCount(b, a);
+		} else if (m / GALLOP_RATIO >= n) {
+			return gallopCount(a, b);
+		}
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			int x = a[i];
+			int y = b[j];
+			// Written without branches, so that the comparisons compile to conditional moves
+			count += x == y ? 1 : 0;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the elements contained in both a and b to out, which must hold at
+	 * least min(a.length, b.length) elements
+	 *
+	 * @return the number of elements written
+	 */
+	public static int intersection(int[] a, int[] b, int[] out) {
+		int n = a.length;
+		int m = b.length;
+		if (n / GALLOP_RATIO >= m) {
+			return gallopIntersection(b, a, out);
+		} else if (m / GALLOP_RATIO >= n) {
+			return gallopIntersection(a, b, out);
+		}
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			int x = a[i];
+			int y = b[j];
+			// The slot is overwritten unless the elements are equal
+			out[count] = x;
+			count += x == y ? 1 : 0;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the elements contained in both a and b
+	 */
+	public static int[] intersection(int[] a, int[] b) {
+		int[] out = new int[Math.min(a.length, b.length)];
+		return trim(out, intersection(a, b, out));
+	}
+
+	/**
+	 * @return the number of elements contained in a or b
+	 */
+	public static int unionCount(int[] a, int[] b) {
+		return a.length + b.length - intersectionCount(a, b);
+	}
+
+	/**
+	 * Writes the elements contained in a or b to out, which must hold at least
+	 * a.length + b.length elements
+	 *
+	 * @return the number of elements written
+	 */
+	public static int union(int[] a, int[] b, int[] out) {
+		int n = a.length;
+		int m = b.length;
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			int x = a[i];
+			int y = b[j];
+			out[count++] = x <= y ? x : y;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		System.arraycopy(a, i, out, count, n - i);
+		count += n - i;
+		System.arraycopy(b, j, out, count, m - j);
+		return count + m - j;
+	}
+
+	/**
+	 * @return the elements contained in a or b
+	 */
+	public static int[] union(int[] a, int[] b) {
+		int[] out = new int[a.length + b.length];
+		return trim(out, union(a, b, out));
+	}
+
+	/**
+	 * @return the number of elements contained in a but not in b
+	 */
+	public static int differenceCount(int[] a, int[] b) {
+		return a.length - intersectionCount(a, b);
+	}
+
+	/**
+	 * Writes the elements contained in a but not in b to out, which must hold
+	 * at least a.length elements
+	 *
+	 * @return the number of elements written
+	 */
+	public static int difference(int[] a, int[] b, int[] out) {
+		int n = a.length;
+		int m = b.length;
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			int x = a[i];
+			int y = b[j];
+			out[count] = x;
+			count += x < y ? 1 : 0;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		System.arraycopy(a, i, out, count, n - i);
+		return count + n - i;
+	}
+
+	/**
+	 * @return the elements contained in a but not in b
+	 */
+	public static int[] difference(int[] a, int[] b) {
+		int[] out = new int[a.length];
+		return trim(out, difference(a, b, out));
+	}
+
+	/**
+	 * @return true if the elements are sorted in strictly ascending order
+	 */
+	public static boolean isSet(int[] a) {
+		for (int i = 1; i < a.length; i++) {
+			if (a[i - 1] >= a[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the elements of small found in large by exponential search
+	 */
+	private static int gallopCount(int[] small, int[] large) {
+		int count = 0;
+		int j = 0;
+		for (int i = 0; i < small.length && j < large.length; i++) {
+			j = gallop(large, j, small[i]);
+			if (j < large.length && large[j] == small[i]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static int gallopIntersection(int[] small, int[] large, int[] out) {
+		int count = 0;
+		int j = 0;
+		for (int i = 0; i < small.length && j < large.length; i++) {
+			j = gallop(large, j, small[i]);
+			if (j < large.length && large[j] == small[i]) {
+				out[count++] = small[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the index of the first element at or after from which is not
+	 *         less than key, or the length of the array if there is none
+	 */
+	static int gallop(int[] a, int from, int key) {
+		int low = from;
+		int high = from;
+		int bound = 1;
+		while (high < a.length && a[high] < key) {
+			low = high + 1;
+			high = from + bound;
+			bound <<= 1;
+		}
+		high = Math.min(high, a.length);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (a[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static int[] trim(int[] a, int length) {
+		return length == a.length ? a : Arrays.copyOf(a, length);
+	}
+
+	/**
+	 * @return the number of elements contained in both a and b
+	 */
+	public static int intersectionCount(long[] a, long[] b) {
+		int n = a.length;
+		int m = b.length;
+		if (n == 0 || m == 0) {
+			return 0;
+		}
+		if (n / GALLOP_RATIO >= m) {
+			return gallopCount(b, a);
+		} else if (m / GALLOP_RATIO >= n) {
+			return gallopCount(a, b);
+		}
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			long x = a[i];
+			long y = b[j];
+			// Written without branches, so that the comparisons compile to conditional moves
+			count += x == y ? 1 : 0;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the elements contained in both a and b to out, which must hold at
+	 * least min(a.length, b.length) elements
+	 *
+	 * @return the number of elements written
+	 */
+	public static int intersection(long[] a, long[] b, long[] out) {
+		int n = a.length;
+		int m = b.length;
+		if (n / GALLOP_RATIO >= m) {
+			return gallopIntersection(b, a, out);
+		} else if (m / GALLOP_RATIO >= n) {
+			return gallopIntersection(a, b, out);
+		}
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			long x = a[i];
+			long y = b[j];
+			// The slot is overwritten unless the elements are equal
+			out[count] = x;
+			count += x == y ? 1 : 0;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the elements contained in both a and b
+	 */
+	public static long[] intersection(long[] a, long[] b) {
+		long[] out = new long[Math.min(a.length, b.length)];
+		return trim(out, intersection(a, b, out));
+	}
+
+	/**
+	 * @return the number of elements contained in a or b
+	 */
+	public static int unionCount(long[] a, long[] b) {
+		return a.length + b.length - intersectionCount(a, b);
+	}
+
+	/**
+	 * Writes the elements contained in a or b to out, which must hold at least
+	 * a.length + b.length elements
+	 *
+	 * @return the number of elements written
+	 */
+	public static int union(long[] a, long[] b, long[] out) {
+		int n = a.length;
+		int m = b.length;
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			long x = a[i];
+			long y = b[j];
+			out[count++] = x <= y ? x : y;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		System.arraycopy(a, i, out, count, n - i);
+		count += n - i;
+		System.arraycopy(b, j, out, count, m - j);
+		return count + m - j;
+	}
+
+	/**
+	 * @return the elements contained in a or b
+	 */
+	public static long[] union(long[] a, long[] b) {
+		long[] out = new long[a.length + b.length];
+		return trim(out, union(a, b, out));
+	}
+
+	/**
+	 * @return the number of elements contained in a but not in b
+	 */
+	public static int differenceCount(long[] a, long[] b) {
+		return a.length - intersectionCount(a, b);
+	}
+
+	/**
+	 * Writes the elements contained in a but not in b to out, which must hold
+	 * at least a.length elements
+	 *
+	 * @return the number of elements written
+	 */
+	public static int difference(long[] a, long[] b, long[] out) {
+		int n = a.length;
+		int m = b.length;
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < n && j < m) {
+			long x = a[i];
+			long y = b[j];
+			out[count] = x;
+			count += x < y ? 1 : 0;
+			i += x <= y ? 1 : 0;
+			j += x >= y ? 1 : 0;
+		}
+		System.arraycopy(a, i, out, count, n - i);
+		return count + n - i;
+	}
+
+	/**
+	 * @return the elements contained in a but not in b
+	 */
+	public static long[] difference(long[] a, long[] b) {
+		long[] out = new long[a.length];
+		return trim(out, difference(a, b, out));
+	}
+
+	/**
+	 * @return true if the elements are sorted in strictly ascending order
+	 */
+	public static boolean isSet(long[] a) {
+		for (int i = 1; i < a.length; i++) {
+			if (a[i - 1] >= a[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the elements of small found in large by exponential search
+	 */
+	private static int gallopCount(long[] small, long[] large) {
+		int count = 0;
+		int j = 0;
+		for (int i = 0; i < small.length && j < large.length; i++) {
+			j = gallop(large, j, small[i]);
+			if (j < large.length && large[j] == small[i]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static int gallopIntersection(long[] small, long[] large, long[] out) {
+		int count = 0;
+		int j = 0;
+		for (int i = 0; i < small.length && j < large.length; i++) {
+			j = gallop(large, j, small[i]);
+			if (j < large.length && large[j] == small[i]) {
+				out[count++] = small[i];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the index of the first element at or after from which is not
+	 *         less than key, or the length of the array if there is none
+	 */
+	static int gallop(long[] a, int from, long key) {
+		int low = from;
+		int high = from;
+		int bound = 1;
+		while (high < a.length && a[high] < key) {
+			low = high + 1;
+			high = from + bound;
+			bound <<= 1;
+		}
+		high = Math.min(high, a.length);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (a[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static long[] trim(long[] a, int length) {
+		return length == a.length ? a : Arrays.copyOf(a, length);
+	}
+}
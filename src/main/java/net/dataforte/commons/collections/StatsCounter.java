@@ -0,0 +1,49 @@
+package net.dataforte.commons.collections;
+
+/**
+ * Accumulates statistics about a {@link Memoizer}. Implementations must be
+ * thread-safe and cheap, since they are invoked on every lookup.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public interface StatsCounter {
+	/**
+	 * Records a lookup which found an entry, either completed or in progress
+	 */
+	void recordHit();
+
+	/**
+	 * Records a lookup which had to start a new computation
+	 */
+	void recordMiss();
+
+	/**
+	 * Records a caller waiting for a computation started by another caller
+	 */
+	void recordWait();
+
+	/**
+	 * Records a successful computation
+	 *
+	 * @param loadTime the duration of the computation in nanoseconds
+	 */
+	void recordLoadSuccess(long loadTime);
+
+	/**
+	 * Records a computation which threw an exception
+	 *
+	 * @param loadTime the duration of the computation in nanoseconds
+	 */
+	void recordLoadFailure(long loadTime);
+
+	/**
+	 * Records the removal of an entry because of its size or its age
+	 */
+	void recordEviction();
+
+	/**
+	 * @return a point-in-time copy of the statistics
+	 */
+	MemoizerStats snapshot();
+}
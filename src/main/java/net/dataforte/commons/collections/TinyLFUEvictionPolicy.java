@@ -0,0 +1,159 @@
+package net.dataforte.commons.collections;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link EvictionPolicy} implementing W-TinyLFU: new keys enter a small LRU
+ * admission window (1% of the maximum weight). Keys overflowing the window
+ * compete for a place in the main segmented LRU, which is split into a
+ * probation and a protected (80%) area: when the cache is full, the newcomer
+ * is only admitted if a {@link FrequencySketch} estimates it has been used more
+ * often than the probation victim. This makes the policy resistant to scans and
+ * one-hit wonders which would otherwise flush a plain LRU.
+ *
+ * The sketch is sized by the number of keys in the policy rather than by
+ * their weight, so that a large maximum weight, e.g. a number of bytes, does
+ * not allocate a large sketch upfront: it starts small and grows with the
+ * number of keys.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ */
+public class TinyLFUEvictionPolicy<K> implements EvictionPolicy<K> {
+	private static final int INITIAL_SKETCH_SIZE = 256;
+
+	private final LinkedHashMap<K, Long> window = new LinkedHashMap<K, Long>();
+	private final LinkedHashMap<K, Long> probation = new LinkedHashMap<K, Long>();
+	private final LinkedHashMap<K, Long> protectedSegment = new LinkedHashMap<K, Long>();
+	private final FrequencySketch sketch;
+	private final long maximumWeight;
+	private final long maximumWindowWeight;
+	private final long maximumProtectedWeight;
+	private long windowWeight;
+	private long probationWeight;
+	private long protectedWeight;
+
+	/**
+	 * @param maximumWeight the maximum total weight. When used with the default
+	 * {@link Weigher} this is the maximum number of entries
+	 */
+	public TinyLFUEvictionPolicy(long maximumWeight) {
+		if (maximumWeight < 0)
+			throw new IllegalArgumentException("maximumWeight must not be negative");
+		this.maximumWeight = maximumWeight;
+		this.maximumWindowWeight = Math.max(1, maximumWeight / 100);
+		this.maximumProtectedWeight = (long) ((maximumWeight - maximumWindowWeight) * 0.8);
+		this.sketch = new FrequencySketch(Math.min(maximumWeight, INITIAL_SKETCH_SIZE));
+	}
+
+	public void recordAccess(K key) {
+		sketch.increment(key);
+		Long weight;
+		if ((weight = window.remove(key)) != null) {
+			window.put(key, weight);
+		} else if ((weight = probation.remove(key)) != null) {
+			probationWeight -= weight;
+			protectedSegment.put(key, weight);
+			protectedWeight += weight;
+			demoteProtected();
+		} else if ((weight = protectedSegment.remove(key)) != null) {
+			protectedSegment.put(key, weight);
+		}
+	}
+
+	public void add(K key, long weight, Collection<K> evicted) {
+		Long previous;
+		if ((previous = window.get(key)) != null) {
+			window.put(key, weight);
+			windowWeight += weight - previous;
+			recordAccess(key);
+		} else if ((previous = probation.get(key)) != null) {
+			probation.put(key, weight);
+			probationWeight += weight - previous;
+			recordAccess(key);
+		} else if ((previous = protectedSegment.get(key)) != null) {
+			protectedSegment.put(key, weight);
+			protectedWeight += weight - previous;
+			recordAccess(key);
+		} else {
+			window.put(key, weight);
+			windowWeight += weight;
+			sketch.ensureCapacity(window.size() + probation.size() + protectedSegment.size());
+			sketch.increment(key);
+		}
+		// Keys overflowing the window become admission candidates in probation
+		K candidate = null;
+		while (windowWeight > maximumWindowWeight && window.size() > 1) {
+			Map.Entry<K, Long> eldest = window.entrySet().iterator().next();
+			window.remove(eldest.getKey());
+			windowWeight -= eldest.getValue();
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationWeight += eldest.getValue();
+			candidate = eldest.getKey();
+		}
+		while (getWeightedSize() > maximumWeight) {
+			if (evictOne(candidate, evicted)) {
+				candidate = null;
+			}
+		}
+	}
+
+	public void remove(K key) {
+		Long weight;
+		if ((weight = window.remove(key)) != null) {
+			windowWeight -= weight;
+		} else if ((weight = probation.remove(key)) != null) {
+			probationWeight -= weight;
+		} else if ((weight = protectedSegment.remove(key)) != null) {
+			protectedWeight -= weight;
+		}
+	}
+
+	public long getWeightedSize() {
+		return windowWeight + probationWeight + protectedWeight;
+	}
+
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * Evicts a single key, returning true if the evicted key was the candidate
+	 */
+	private boolean evictOne(K candidate, Collection<K> evicted) {
+		if (!probation.isEmpty()) {
+			// The victim is the least recently used key in probation, the
+			// candidate is the key which most recently left the window
+			K victim = probation.keySet().iterator().next();
+			K loser = victim;
+			if (candidate != null && !candidate.equals(victim) && sketch.frequency(candidate) <= sketch.frequency(victim)) {
+				loser = candidate;
+			}
+			probationWeight -= probation.remove(loser);
+			evicted.add(loser);
+			return loser.equals(candidate);
+		} else if (!protectedSegment.isEmpty()) {
+			K victim = protectedSegment.keySet().iterator().next();
+			protectedWeight -= protectedSegment.remove(victim);
+			evicted.add(victim);
+		} else {
+			K victim = window.keySet().iterator().next();
+			windowWeight -= window.remove(victim);
+			evicted.add(victim);
+		}
+		return false;
+	}
+
+	private void demoteProtected() {
+		while (protectedWeight > maximumProtectedWeight && protectedSegment.size() > 1) {
+			Map.Entry<K, Long> eldest = protectedSegment.entrySet().iterator().next();
+			protectedSegment.remove(eldest.getKey());
+			protectedWeight -= eldest.getValue();
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationWeight += eldest.getValue();
+		}
+	}
+}
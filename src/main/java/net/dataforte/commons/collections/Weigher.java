@@ -0,0 +1,19 @@
+package net.dataforte.commons.collections;
+
+/**
+ * Computes the weight of a memoized entry, used by a bounded {@link Memoizer}
+ * to limit its total size by something other than the number of entries
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface Weigher<K, V> {
+	/**
+	 * @param key the key of the entry
+	 * @param value the computed value
+	 * @return the weight of the entry, which must not be negative
+	 */
+	int weigh(K key, V value);
+}
@@ -0,0 +1,103 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how long to wait before retrying an operation which has failed
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public abstract class BackoffPolicy {
+
+	/**
+	 * Computes the delay before the next attempt
+	 *
+	 * @param failures the number of consecutive failures so far, starting at 1
+	 * @param previousDelay the delay returned for the previous failure in
+	 *            nanoseconds, or 0 after the first failure
+	 * @return the delay in nanoseconds
+	 */
+	public abstract long getDelayNanos(int failures, long previousDelay);
+
+	/**
+	 * @return a policy which always retries immediately
+	 */
+	public static BackoffPolicy none() {
+		return fixed(0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return a policy which always waits for the same delay
+	 */
+	public static BackoffPolicy fixed(long delay, TimeUnit unit) {
+		final long delayNanos = unit.toNanos(delay);
+		return new BackoffPolicy() {
+			@Override
+			public long getDelayNanos(int failures, long previousDelay) {
+				return delayNanos;
+			}
+
+			@Override
+			public String toString() {
+				return "BackoffPolicy.fixed[" + delayNanos + "ns]";
+			}
+		};
+	}
+
+	/**
+	 * @return a policy which doubles the delay after every failure, starting
+	 *         from the initial delay and never exceeding the maximum delay
+	 */
+	public static BackoffPolicy exponential(long initialDelay, long maxDelay, TimeUnit unit) {
+		final long initialNanos = unit.toNanos(initialDelay);
+		final long maxNanos = unit.toNanos(maxDelay);
+		return new BackoffPolicy() {
+			@Override
+			public long getDelayNanos(int failures, long previousDelay) {
+				int shift = Math.min(Math.max(failures - 1, 0), 62);
+				long delay = initialNanos << shift;
+				// Detect overflow of the shift
+				if (delay >>> shift != initialNanos) {
+					return maxNanos;
+				}
+				return Math.min(delay, maxNanos);
+			}
+
+			@Override
+			public String toString() {
+				return "BackoffPolicy.exponential[" + initialNanos + "ns, " + maxNanos + "ns]";
+			}
+		};
+	}
+
+	/**
+	 * Returns a policy which picks a random delay between the base delay and
+	 * three times the previous delay, never exceeding the maximum delay. The
+	 * delays grow roughly exponentially, but the randomization spreads out the
+	 * retries of clients which failed at the same time, so that they do not
+	 * hit a recovering backend in synchronized waves.
+	 *
+	 * @return a "decorrelated jitter" policy
+	 */
+	public static BackoffPolicy decorrelatedJitter(long baseDelay, long maxDelay, TimeUnit unit) {
+		final long baseNanos = unit.toNanos(baseDelay);
+		final long maxNanos = unit.toNanos(maxDelay);
+		return new BackoffPolicy() {
+			@Override
+			public long getDelayNanos(int failures, long previousDelay) {
+				long upper = previousDelay > maxNanos / 3 ? maxNanos : Math.max(previousDelay * 3, baseNanos);
+				if (upper <= baseNanos) {
+					return Math.min(baseNanos, maxNanos);
+				}
+				return Math.min(ThreadLocalRandom.current().nextLong(baseNanos, upper), maxNanos);
+			}
+
+			@Override
+			public String toString() {
+				return "BackoffPolicy.decorrelatedJitter[" + baseNanos + "ns, " + maxNanos + "ns]";
+			}
+		};
+	}
+}
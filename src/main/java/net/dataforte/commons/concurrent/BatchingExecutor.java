@@ -0,0 +1,234 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups individual requests into bulk calls. Each request submitted with
+ * {@link #submit(Object)} is added to the current batch, which is handed to
+ * the {@link BulkFunction} as soon as it holds the maximum batch size, or
+ * when the linger time has elapsed since its first request, whichever comes
+ * first. The future returned to each caller is completed with the
+ * corresponding element of the bulk result.
+ *
+ * A longer linger time yields larger batches at the cost of latency: with
+ * the default of 0, a batch is only as large as the number of requests
+ * submitted while the previous one was being dispatched. The sizes of the
+ * dispatched batches are recorded in a {@link Histogram}.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <T> the type of the requests
+ * @param <R> the type of the results
+ */
+public class BatchingExecutor<T, R> {
+
+	/**
+	 * Performs a batch of requests at once
+	 */
+	public interface BulkFunction<T, R> {
+		/**
+		 * @param requests the requests, in order of submission
+		 * @return the results, in the same order as the requests
+		 */
+		List<R> apply(List<T> requests) throws Exception;
+	}
+
+	private final BulkFunction<T, R> function;
+	private final ScheduledExecutorService scheduler;
+	private final Executor executor;
+	private final Histogram batchSizes = new Histogram();
+	private final Object lock = new Object();
+	private volatile int maxBatchSize = 100;
+	private volatile long lingerNanos;
+	private List<T> requests;
+	private List<CompletableFuture<R>> futures;
+	private Future<?> lingerTimer;
+	private boolean shutdown;
+
+	/**
+	 * Creates a BatchingExecutor which performs the bulk calls on the threads
+	 * of the scheduler, which should therefore be used for short calls only
+	 *
+	 * @see #BatchingExecutor(BulkFunction, ScheduledExecutorService, Executor)
+	 */
+	public BatchingExecutor(BulkFunction<T, R> function, ScheduledExecutorService scheduler) {
+		this(function, scheduler, scheduler);
+	}
+
+	/**
+	 * @param function the {@link BulkFunction} which performs the batches
+	 * @param scheduler the {@link ScheduledExecutorService} used to dispatch
+	 *            batches once the linger time has elapsed
+	 * @param executor the {@link Executor} which performs the bulk calls
+	 */
+	public BatchingExecutor(BulkFunction<T, R> function, ScheduledExecutorService scheduler, Executor executor) {
+		this.function = function;
+		this.scheduler = scheduler;
+		this.executor = executor;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Sets the number of requests at which a batch is dispatched without
+	 * waiting for the linger time
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("The maximum batch size must be positive: " + maxBatchSize);
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public long getLinger(TimeUnit unit) {
+		return unit.convert(lingerNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets the time a batch waits for more requests after the first one
+	 */
+	public void setLinger(long linger, TimeUnit unit) {
+		if (linger < 0)
+			throw new IllegalArgumentException("The linger time must not be negative: " + linger);
+		this.lingerNanos = unit.toNanos(linger);
+	}
+
+	/**
+	 * @return the sizes of the batches dispatched so far
+	 */
+	public Histogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * Adds a request to the current batch
+	 *
+	 * @return a {@link CompletableFuture} completed with the result of the
+	 *         request, or with the exception thrown by the bulk call
+	 * @throws RejectedExecutionException if the executor has been shut down
+	 */
+	public CompletableFuture<R> submit(T request) {
+		CompletableFuture<R> future = new CompletableFuture<R>();
+		List<T> fullRequests = null;
+		List<CompletableFuture<R>> fullFutures = null;
+		synchronized (lock) {
+			if (shutdown)
+				throw new RejectedExecutionException("BatchingExecutor has been shut down");
+			if (requests == null) {
+				requests = new ArrayList<T>();
+				futures = new ArrayList<CompletableFuture<R>>();
+			}
+			requests.add(request);
+			futures.add(future);
+			if (requests.size() >= maxBatchSize) {
+				fullRequests = requests;
+				fullFutures = futures;
+				take();
+			} else if (requests.size() == 1) {
+				final List<T> batch = requests;
+				try {
+					lingerTimer = scheduler.schedule(() -> flush(batch), lingerNanos, TimeUnit.NANOSECONDS);
+				} catch (RejectedExecutionException e) {
+					take();
+					throw e;
+				}
+			}
+		}
+		if (fullRequests != null) {
+			dispatch(fullRequests, fullFutures);
+		}
+		return future;
+	}
+
+	/**
+	 * Dispatches the current batch without waiting for the linger time
+	 */
+	public void flush() {
+		List<T> batch;
+		synchronized (lock) {
+			batch = requests;
+		}
+		if (batch != null) {
+			flush(batch);
+		}
+	}
+
+	/**
+	 * Dispatches the current batch and rejects further requests. The
+	 * scheduler and the executor are not shut down.
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			shutdown = true;
+		}
+		flush();
+	}
+
+	/**
+	 * Dispatches a batch, unless it has already been dispatched because it
+	 * filled up
+	 */
+	private void flush(List<T> batch) {
+		List<CompletableFuture<R>> batchFutures;
+		synchronized (lock) {
+			if (requests != batch) {
+				return;
+			}
+			batchFutures = futures;
+			take();
+		}
+		dispatch(batch, batchFutures);
+	}
+
+	/**
+	 * Detaches the current batch, so that the next request starts a new one.
+	 * Must be invoked with the lock held.
+	 */
+	private void take() {
+		if (lingerTimer != null) {
+			lingerTimer.cancel(false);
+			lingerTimer = null;
+		}
+		requests = null;
+		futures = null;
+	}
+
+	private void dispatch(final List<T> batch, final List<CompletableFuture<R>> batchFutures) {
+		batchSizes.record(batch.size());
+		try {
+			executor.execute(() -> {
+				List<R> results;
+				try {
+					results = function.apply(batch);
+				} catch (Throwable t) {
+					for (CompletableFuture<R> future : batchFutures) {
+						future.completeExceptionally(t);
+					}
+					return;
+				}
+				if (results == null || results.size() != batch.size()) {
+					IllegalStateException e = new IllegalStateException("The bulk function returned " + (results == null ? "null" : results.size() + " results") + " for " + batch.size() + " requests");
+					for (CompletableFuture<R> future : batchFutures) {
+						future.completeExceptionally(e);
+					}
+					return;
+				}
+				for (int i = 0; i < batchFutures.size(); i++) {
+					batchFutures.get(i).complete(results.get(i));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			for (CompletableFuture<R> future : batchFutures) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+}
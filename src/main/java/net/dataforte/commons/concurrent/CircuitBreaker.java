@@ -0,0 +1,179 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.dataforte.commons.slf4j.LoggerFactory;
+
+import org.slf4j.Logger;
+
+/**
+ * A circuit breaker, which stops calls to a failing dependency for a while
+ * so that it can recover.
+ *
+ * While {@link State#CLOSED} all calls are permitted, and their outcomes are
+ * counted over a sliding window. Once the failure rate within the window
+ * reaches the threshold, and enough calls have been made, the breaker opens.
+ * While {@link State#OPEN} no calls are permitted. After the open duration
+ * has elapsed the breaker becomes {@link State#HALF_OPEN} and permits a few
+ * trial calls: if they all succeed it closes, if any fails it opens again.
+ *
+ * Callers invoke {@link #tryAcquire()} before each call and then report its
+ * outcome with {@link #onSuccess()} or {@link #onFailure()}, or
+ * {@link #release()} if the outcome says nothing about the dependency. All
+ * the methods are lock-free; while closed, a successful call only costs a
+ * volatile read and a counter increment.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class CircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final int SUCCESSES = 0;
+	private static final int FAILURES = 1;
+
+	private final Logger log = LoggerFactory.make();
+	private final String name;
+	private final double failureRateThreshold;
+	private final int minimumCalls;
+	private final long openNanos;
+	private final int halfOpenCalls;
+	private final SlidingWindow window;
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+	private final AtomicInteger halfOpenPermits = new AtomicInteger();
+	private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+	private volatile long openedAt;
+
+	/**
+	 * Creates a circuit breaker which opens when half of at least 20 calls
+	 * within 10 seconds fail, and stays open for 10 seconds before permitting
+	 * 3 trial calls
+	 */
+	public CircuitBreaker(String name) {
+		this(name, 0.5, 20, 10, 10, TimeUnit.SECONDS, 3);
+	}
+
+	/**
+	 * @param name the name used in log messages
+	 * @param failureRateThreshold the fraction of failed calls which opens the breaker
+	 * @param minimumCalls the number of calls within the window below which the breaker never opens
+	 * @param window the duration of the window over which failures are counted
+	 * @param openDuration the time the breaker stays open before permitting trial calls
+	 * @param halfOpenCalls the number of successful trial calls which close the breaker
+	 */
+	public CircuitBreaker(String name, double failureRateThreshold, int minimumCalls, long window, long openDuration, TimeUnit unit, int halfOpenCalls) {
+		if (failureRateThreshold <= 0 || failureRateThreshold > 1)
+			throw new IllegalArgumentException("The failure rate threshold must be in (0, 1]: " + failureRateThreshold);
+		if (halfOpenCalls < 1)
+			throw new IllegalArgumentException("At least one trial call is required");
+		this.name = name;
+		this.failureRateThreshold = failureRateThreshold;
+		this.minimumCalls = minimumCalls;
+		this.openNanos = unit.toNanos(openDuration);
+		this.halfOpenCalls = halfOpenCalls;
+		this.window = new SlidingWindow(2, 10, window, unit);
+	}
+
+	/**
+	 * @return true if a call is permitted, in which case its outcome must be reported
+	 */
+	public boolean tryAcquire() {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			return true;
+		}
+		if (current == State.OPEN) {
+			if (System.nanoTime() - openedAt < openNanos) {
+				return false;
+			}
+			if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+				// open() left no permits, so callers racing with this transition are rejected
+				halfOpenSuccesses.set(0);
+				halfOpenPermits.set(halfOpenCalls);
+				log.info("Circuit breaker " + name + " is half-open");
+			}
+		}
+		for (;;) {
+			int permits = halfOpenPermits.get();
+			if (permits <= 0 || state.get() != State.HALF_OPEN) {
+				return false;
+			}
+			if (halfOpenPermits.compareAndSet(permits, permits - 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void onSuccess() {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			window.record(SUCCESSES, System.nanoTime());
+		} else if (current == State.HALF_OPEN && halfOpenSuccesses.incrementAndGet() >= halfOpenCalls) {
+			window.reset();
+			if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+				log.info("Circuit breaker " + name + " is closed");
+			}
+		}
+	}
+
+	public void onFailure() {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			long now = System.nanoTime();
+			window.record(FAILURES, now);
+			long failures = window.sum(FAILURES, now);
+			long calls = failures + window.sum(SUCCESSES, now);
+			if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+				open(State.CLOSED);
+			}
+		} else if (current == State.HALF_OPEN) {
+			open(State.HALF_OPEN);
+		}
+	}
+
+	/**
+	 * Returns the permit of a call which was neither a success nor a failure,
+	 * e.g. because it was cancelled
+	 */
+	public void release() {
+		if (state.get() == State.HALF_OPEN) {
+			halfOpenPermits.incrementAndGet();
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * @return the fraction of failed calls within the window while closed
+	 */
+	public double getFailureRate() {
+		long now = System.nanoTime();
+		long failures = window.sum(FAILURES, now);
+		long calls = failures + window.sum(SUCCESSES, now);
+		return calls > 0 ? (double) failures / calls : 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	private void open(State from) {
+		openedAt = System.nanoTime();
+		// Permits left over from a failed half-open cycle must not leak into the next one
+		halfOpenPermits.set(0);
+		if (state.compareAndSet(from, State.OPEN)) {
+			log.warn("Circuit breaker " + name + " is open");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CircuitBreaker[" + name + ", " + state.get() + "]";
+	}
+}
@@ -0,0 +1,21 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a call is not attempted because its {@link CircuitBreaker} is open
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class CircuitBreakerOpenException extends RejectedExecutionException {
+	private static final long serialVersionUID = 1L;
+
+	public CircuitBreakerOpenException(String message) {
+		super(message);
+	}
+
+	public CircuitBreakerOpenException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,267 @@
+package net.dataforte.commons.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Limits the number of calls in flight to a dependency, acting as a
+ * bulkhead. The limit is not fixed but adjusted by a {@link LimitAlgorithm}
+ * from the latency and the outcome of the completed calls, so that it
+ * follows the capacity of the dependency: when it slows down the limit
+ * shrinks and excess calls are rejected immediately, instead of queueing up
+ * until everything times out.
+ *
+ * Calls over the limit can be shed with {@link #tryAcquire()}, or wait for a
+ * permit until a deadline with {@link #acquire(long, TimeUnit)}. Each
+ * {@link Permit} must be completed exactly once. {@link #wrap(Callable)} does
+ * all this for a {@link Callable}, which can then be passed to a
+ * {@link RetryCallable}.
+ *
+ * The current limit and the number of rejections can be read directly or
+ * over JMX, see {@link #registerMBean(String)}.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class ConcurrencyLimiter implements ConcurrencyLimiterMXBean {
+	public static final String JMX_DOMAIN = "net.dataforte.commons";
+
+	private final LimitAlgorithm algorithm;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private volatile int limit;
+	private volatile int waiters;
+
+	/**
+	 * Creates a limiter using the gradient algorithm, starting from a limit of
+	 * 20 and never exceeding 1000
+	 */
+	public ConcurrencyLimiter() {
+		this(LimitAlgorithm.gradient(20, 1, 1000));
+	}
+
+	public ConcurrencyLimiter(LimitAlgorithm algorithm) {
+		this.algorithm = algorithm;
+		this.limit = algorithm.getInitialLimit();
+	}
+
+	/**
+	 * @return a permit, or null if the limit has been reached
+	 */
+	public Permit tryAcquire() {
+		Permit permit = acquirePermit();
+		if (permit == null) {
+			rejected.increment();
+		}
+		return permit;
+	}
+
+	/**
+	 * Waits for a permit if the limit has been reached
+	 *
+	 * @return a permit, or null if none became available before the timeout
+	 */
+	public Permit acquire(long timeout, TimeUnit unit) throws InterruptedException {
+		Permit permit = acquirePermit();
+		if (permit != null) {
+			return permit;
+		}
+		long remaining = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			waiters++;
+			try {
+				while ((permit = acquirePermit()) == null) {
+					if (remaining <= 0) {
+						rejected.increment();
+						return null;
+					}
+					remaining = available.awaitNanos(remaining);
+				}
+				return permit;
+			} finally {
+				waiters--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wraps a {@link Callable} so that each invocation holds a permit. A
+	 * {@link LimitExceededException} is thrown if none is available within the
+	 * timeout, which may be 0 to shed excess calls immediately, and which is
+	 * clipped to the current {@link Deadline}. Exceptions thrown by the
+	 * callable are reported as drops.
+	 */
+	public <T> Callable<T> wrap(final Callable<T> callable, final long timeout, final TimeUnit unit) {
+		return new Callable<T>() {
+			public T call() throws Exception {
+				long timeoutNanos = Deadline.clip(timeout, unit);
+				Permit permit = timeoutNanos > 0 ? acquire(timeoutNanos, TimeUnit.NANOSECONDS) : tryAcquire();
+				if (permit == null) {
+					throw new LimitExceededException(callable.toString() + " rejected: " + ConcurrencyLimiter.this);
+				}
+				boolean success = false;
+				try {
+					T result = callable.call();
+					success = true;
+					return result;
+				} finally {
+					if (success) {
+						permit.onSuccess();
+					} else {
+						permit.onDropped();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wraps a {@link Callable} so that excess invocations are rejected immediately
+	 *
+	 * @see #wrap(Callable, long, TimeUnit)
+	 */
+	public <T> Callable<T> wrap(Callable<T> callable) {
+		return wrap(callable, 0, TimeUnit.NANOSECONDS);
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getAcceptedCount() {
+		return accepted.sum();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Registers this limiter with the platform MBeanServer as
+	 * <code>net.dataforte.commons:type=ConcurrencyLimiter,name=<i>name</i></code>
+	 *
+	 * @param name the name under which to register the limiter
+	 * @return the {@link ObjectName} of the registered MBean
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=ConcurrencyLimiter,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Unregisters an MBean previously registered with {@link #registerMBean(String)}
+	 */
+	public void unregisterMBean(ObjectName objectName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrencyLimiter[limit=" + limit + ", inFlight=" + inFlight.get() + ", " + algorithm + "]";
+	}
+
+	private Permit acquirePermit() {
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return null;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				accepted.increment();
+				return new Permit(System.nanoTime());
+			}
+		}
+	}
+
+	private void release(long rtt, boolean drop, boolean update) {
+		if (update) {
+			int previous;
+			int updated;
+			synchronized (algorithm) {
+				previous = limit;
+				updated = algorithm.update(previous, rtt, inFlight.get(), drop);
+				limit = updated;
+			}
+			if (drop) {
+				dropped.increment();
+			}
+			inFlight.decrementAndGet();
+			signal(updated > previous ? updated - previous + 1 : 1);
+		} else {
+			inFlight.decrementAndGet();
+			signal(1);
+		}
+	}
+
+	private void signal(int permits) {
+		// Waiters register under the lock before checking for a permit, so none can be missed
+		if (waiters > 0) {
+			lock.lock();
+			try {
+				for (int i = 0; i < permits; i++) {
+					available.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * The right to make one call. Exactly one of the completion methods must
+	 * be invoked once the call is over.
+	 */
+	public final class Permit {
+		private final long start;
+
+		Permit(long start) {
+			this.start = start;
+		}
+
+		/**
+		 * The call succeeded: its latency is used to adjust the limit
+		 */
+		public void onSuccess() {
+			release(System.nanoTime() - start, false, true);
+		}
+
+		/**
+		 * The call failed or timed out, which is taken as a sign of overload
+		 */
+		public void onDropped() {
+			release(System.nanoTime() - start, true, true);
+		}
+
+		/**
+		 * The call's outcome says nothing about the dependency, e.g. it was
+		 * cancelled by the caller: the limit is left unchanged
+		 */
+		public void onIgnored() {
+			release(0, false, false);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package net.dataforte.commons.concurrent;
+
+/**
+ * The JMX view of a {@link ConcurrencyLimiter}
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public interface ConcurrencyLimiterMXBean {
+	int getLimit();
+
+	int getInFlight();
+
+	long getAcceptedCount();
+
+	long getRejectedCount();
+
+	long getDroppedCount();
+}
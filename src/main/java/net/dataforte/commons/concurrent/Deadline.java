@@ -0,0 +1,304 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A point in time by which a piece of work must complete, together with a
+ * cancellation flag. The deadline of the work being done by a thread is held
+ * in a thread-local, so that it reaches nested calls without being passed
+ * around explicitly: {@link #call(Callable)} installs a deadline for the
+ * duration of a call, {@link #current()} retrieves it, and
+ * {@link #wrap(Callable)} carries it across executor hops.
+ *
+ * Deadlines nest: a deadline created while another one is current never
+ * extends beyond it, and is cancelled along with it. When a deadline expires
+ * or is cancelled, the threads running calls under it are interrupted, so that
+ * they stop doing work nobody is waiting for, and
+ * {@link #call(Callable)} throws a {@link DeadlineExceededException}.
+ * {@link RetryCallable} clips its backoff delays to the remaining time and
+ * gives up once it has run out.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public final class Deadline {
+	/**
+	 * Timeouts longer than this, roughly 146 years, are treated as infinite
+	 */
+	private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+	private final Deadline parent;
+	private final long expiry;
+	private final Set<Runnable> listeners = ConcurrentHashMap.newKeySet();
+	private volatile boolean cancelled;
+
+	private Deadline(Deadline parent, long expiry) {
+		this.parent = parent;
+		this.expiry = expiry;
+	}
+
+	/**
+	 * Creates a deadline expiring after the specified timeout. If a deadline
+	 * is current, the new one expires no later than it and is cancelled with
+	 * it.
+	 */
+	public static Deadline after(long timeout, TimeUnit unit) {
+		long now = System.nanoTime();
+		long expiry = now + Math.min(Math.max(unit.toNanos(timeout), 0), MAX_TIMEOUT_NANOS);
+		Deadline parent = CURRENT.get();
+		if (parent != null && parent.expiry - expiry < 0) {
+			expiry = parent.expiry;
+		}
+		return new Deadline(parent, expiry);
+	}
+
+	/**
+	 * @return the deadline of the current thread, or null if it is not
+	 *         running under one
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Clips a timeout to the time remaining before the current deadline, if
+	 * any
+	 *
+	 * @return the clipped timeout in nanoseconds
+	 */
+	public static long clip(long timeout, TimeUnit unit) {
+		long nanos = unit.toNanos(timeout);
+		Deadline deadline = CURRENT.get();
+		return deadline == null ? nanos : Math.min(nanos, deadline.remaining(TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * @return the time left before the deadline, which is 0 once it has
+	 *         expired or has been cancelled
+	 */
+	public long remaining(TimeUnit unit) {
+		if (isCancelled()) {
+			return 0;
+		}
+		return unit.convert(Math.max(expiry - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the expiry time, comparable with {@link System#nanoTime()}
+	 */
+	long expiry() {
+		return expiry;
+	}
+
+	/**
+	 * @return true if the deadline has passed or has been cancelled
+	 */
+	public boolean isExpired() {
+		return isCancelled() || expiry - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * @return true if this deadline or one of its enclosing deadlines has been
+	 *         cancelled
+	 */
+	public boolean isCancelled() {
+		for (Deadline d = this; d != null; d = d.parent) {
+			if (d.cancelled) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Cancels the deadline, interrupting the calls running under it and under
+	 * the deadlines nested in it
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @throws DeadlineExceededException if the deadline has expired
+	 */
+	public void check() throws DeadlineExceededException {
+		if (isExpired()) {
+			throw new DeadlineExceededException(toString());
+		}
+	}
+
+	/**
+	 * Invokes the callable with this deadline installed as the current one.
+	 * The calling thread is interrupted if the deadline expires or is
+	 * cancelled before the callable returns.
+	 *
+	 * @throws DeadlineExceededException if the deadline expired before or
+	 *             during the call
+	 */
+	public <T> T call(Callable<T> callable) throws Exception {
+		check();
+		Deadline previous = CURRENT.get();
+		CURRENT.set(this);
+		Interrupter interrupter = new Interrupter(Thread.currentThread());
+		try {
+			interrupter.start();
+			return callable.call();
+		} catch (Exception e) {
+			// The callable may have turned the interrupt into another exception
+			if (interrupter.fired() && !(e instanceof DeadlineExceededException)) {
+				DeadlineExceededException exceeded = new DeadlineExceededException(toString());
+				exceeded.initCause(e);
+				throw exceeded;
+			}
+			throw e;
+		} finally {
+			interrupter.stop();
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * Returns a {@link Callable} which runs under the deadline that is current
+	 * when this method is invoked, for submission to another thread
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> callable) {
+		final Deadline deadline = CURRENT.get();
+		if (deadline == null) {
+			return callable;
+		}
+		return new Callable<T>() {
+			public T call() throws Exception {
+				return deadline.call(callable);
+			}
+		};
+	}
+
+	/**
+	 * Returns a {@link Runnable} which runs under the deadline that is current
+	 * when this method is invoked. If the deadline expires, the runnable throws
+	 * a {@link DeadlineExceededException}.
+	 */
+	public static Runnable wrap(final Runnable runnable) {
+		final Deadline deadline = CURRENT.get();
+		if (deadline == null) {
+			return runnable;
+		}
+		return new Runnable() {
+			public void run() {
+				try {
+					deadline.call(Executors.callable(runnable));
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					// A Runnable cannot throw checked exceptions
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns an {@link Executor} which propagates the deadline of the
+	 * submitting thread to the tasks it runs
+	 */
+	public static Executor propagating(final Executor executor) {
+		return new Executor() {
+			public void execute(Runnable command) {
+				executor.execute(wrap(command));
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		long remaining = expiry - System.nanoTime();
+		return "Deadline[" + (isCancelled() ? "cancelled" : remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining) + "ms remaining" : "expired") + "]";
+	}
+
+	/**
+	 * Interrupts a thread when the deadline expires or is cancelled. The state
+	 * machine guarantees that the interrupt is never delivered after the call
+	 * has returned, where it would hit unrelated code.
+	 */
+	private final class Interrupter implements Runnable {
+		private static final int RUNNING = 0;
+		private static final int INTERRUPTING = 1;
+		private static final int INTERRUPTED = 2;
+		private static final int DONE = 3;
+
+		private final Thread thread;
+		private final AtomicInteger state = new AtomicInteger(RUNNING);
+		private Future<?> timer;
+
+		Interrupter(Thread thread) {
+			this.thread = thread;
+		}
+
+		void start() {
+			for (Deadline d = Deadline.this; d != null; d = d.parent) {
+				d.listeners.add(this);
+			}
+			long remaining = expiry - System.nanoTime();
+			if (remaining < MAX_TIMEOUT_NANOS) {
+				timer = Timer.SCHEDULER.schedule(this, remaining, TimeUnit.NANOSECONDS);
+			}
+			// Cancellations which happened before the listeners were added
+			if (isCancelled()) {
+				run();
+			}
+		}
+
+		public void run() {
+			if (state.compareAndSet(RUNNING, INTERRUPTING)) {
+				thread.interrupt();
+				state.set(INTERRUPTED);
+			}
+		}
+
+		boolean fired() {
+			return state.get() != RUNNING;
+		}
+
+		void stop() {
+			if (timer != null) {
+				timer.cancel(false);
+			}
+			for (Deadline d = Deadline.this; d != null; d = d.parent) {
+				d.listeners.remove(this);
+			}
+			if (!state.compareAndSet(RUNNING, DONE)) {
+				while (state.get() == INTERRUPTING) {
+					Thread.yield();
+				}
+				// Clears the interrupt, which the call may not have noticed
+				Thread.interrupted();
+			}
+		}
+	}
+
+	private static final class Timer {
+		static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, ExecutorUtils.daemonThreadFactory("deadline-timer"));
+
+		static {
+			// Most calls complete before their deadline, so their timers should not linger
+			SCHEDULER.setRemoveOnCancelPolicy(true);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Thrown when work is abandoned because its {@link Deadline} has expired or
+ * has been cancelled. It extends {@link CancellationException} so that
+ * callers such as {@link RetryCallable} do not retry it.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class DeadlineExceededException extends CancellationException {
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,148 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed thread pool which runs the queued tasks in order of priority and,
+ * among tasks of equal priority, earliest deadline first, instead of in
+ * submission order. Under overload this favours the requests whose callers
+ * are still waiting: a task whose {@link Deadline} has expired while it was
+ * queued is not run at all, and its future fails with a
+ * {@link DeadlineExceededException}.
+ *
+ * Each task runs under its deadline, see {@link Deadline#call(Callable)}, so
+ * that a {@link RetryCallable} submitted to this executor clips its retries
+ * to the time remaining. Tasks submitted without an explicit deadline inherit
+ * the current one, if any, and otherwise come after all those which have one.
+ *
+ * The time each task spent in the queue is recorded in a {@link Histogram}.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class DeadlineExecutor extends ThreadPoolExecutor {
+	private final AtomicLong sequence = new AtomicLong();
+	private final Histogram queueWaitTimes = new Histogram();
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * @param threads the number of threads
+	 * @param name the prefix of the names of the threads
+	 */
+	public DeadlineExecutor(int threads, String name) {
+		super(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), ExecutorUtils.daemonThreadFactory(name));
+	}
+
+	/**
+	 * Submits a task which must start before the deadline
+	 */
+	public <T> Future<T> submit(Callable<T> task, Deadline deadline) {
+		return submit(task, 0, deadline);
+	}
+
+	/**
+	 * Submits a task with a priority, which must start before the deadline
+	 *
+	 * @param priority tasks with a higher priority run first, regardless of
+	 *            their deadlines
+	 * @param deadline the deadline of the task, or null if it has none
+	 */
+	public <T> Future<T> submit(Callable<T> task, int priority, Deadline deadline) {
+		if (task == null)
+			throw new NullPointerException();
+		DeadlineTask<T> ftask = new DeadlineTask<T>(task, priority, deadline);
+		execute(ftask);
+		return ftask;
+	}
+
+	/**
+	 * Queues a task under the current deadline. Runnables which were not
+	 * created by this executor are wrapped in a task, as the queue needs to
+	 * order them, so their exceptions do not reach the uncaught exception
+	 * handler of the thread.
+	 */
+	@Override
+	public void execute(Runnable command) {
+		if (command == null)
+			throw new NullPointerException();
+		super.execute(command instanceof DeadlineTask ? command : newTaskFor(command, null));
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new DeadlineTask<T>(callable, 0, Deadline.current());
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new DeadlineTask<T>(Executors.callable(runnable, value), 0, Deadline.current());
+	}
+
+	/**
+	 * @return the times in nanoseconds the tasks spent in the queue before
+	 *         running, or before being dropped
+	 */
+	public Histogram getQueueWaitTimes() {
+		return queueWaitTimes;
+	}
+
+	/**
+	 * @return the number of tasks which were dropped because their deadline
+	 *         expired while they were queued
+	 */
+	public long getExpiredCount() {
+		return expired.sum();
+	}
+
+	final class DeadlineTask<T> extends FutureTask<T> implements Comparable<DeadlineTask<?>> {
+		private final int priority;
+		private final Deadline deadline;
+		private final long sequenceNumber = sequence.getAndIncrement();
+		private final long enqueued = System.nanoTime();
+
+		DeadlineTask(final Callable<T> callable, int priority, final Deadline deadline) {
+			super(deadline == null ? callable : () -> deadline.call(callable));
+			this.priority = priority;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			long wait = System.nanoTime() - enqueued;
+			queueWaitTimes.record(wait);
+			if (deadline != null && deadline.isExpired() && !isDone()) {
+				expired.increment();
+				setException(new DeadlineExceededException("Task dropped after waiting " + TimeUnit.NANOSECONDS.toMillis(wait) + "ms: " + deadline));
+			} else {
+				super.run();
+			}
+		}
+
+		public int compareTo(DeadlineTask<?> other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			if (deadline != other.deadline) {
+				if (deadline == null) {
+					return 1;
+				} else if (other.deadline == null) {
+					return -1;
+				}
+				long diff = deadline.expiry() - other.deadline.expiry();
+				if (diff != 0) {
+					return diff < 0 ? -1 : 1;
+				}
+			}
+			return Long.compare(sequenceNumber, other.sequenceNumber);
+		}
+	}
+}
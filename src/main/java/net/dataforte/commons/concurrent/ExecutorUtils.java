@@ -0,0 +1,72 @@
+package net.dataforte.commons.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility methods for creating {@link ExecutorService}s
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class ExecutorUtils {
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR;
+
+	static {
+		Method method;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			method = null;
+		}
+		NEW_VIRTUAL_THREAD_EXECUTOR = method;
+	}
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * Creates an {@link ExecutorService} which starts a new virtual thread for
+	 * each task. On JVMs without virtual threads, a cached pool of daemon
+	 * platform threads is returned instead.
+	 *
+	 * @param name the prefix of the thread names used by the fallback pool
+	 * @return an {@link ExecutorService}
+	 */
+	public static ExecutorService newVirtualThreadExecutor(String name) {
+		if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+			} catch (Exception e) {
+				// Fall back to platform threads
+			}
+		}
+		return Executors.newCachedThreadPool(daemonThreadFactory(name));
+	}
+
+	/**
+	 * Creates a {@link ThreadFactory} which creates daemon threads named
+	 * with the specified prefix followed by a sequence number
+	 *
+	 * @param name the prefix of the thread names
+	 * @return a {@link ThreadFactory}
+	 */
+	public static ThreadFactory daemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger sequence = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + sequence.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,282 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs many independent {@link Callable}s concurrently and waits for their
+ * results, with at most a fixed number of them running at any time. By
+ * default the tasks run on virtual threads, see
+ * {@link ExecutorUtils#newVirtualThreadExecutor(String)}, so that hundreds of
+ * tasks blocked on I/O cost little memory.
+ *
+ * The caller waits for all the tasks with {@link #allOf}, for the first
+ * success with {@link #anyOf}, or for the first n successes with
+ * {@link #firstN}. As soon as the outcome is decided the remaining tasks are
+ * cancelled, interrupting those which are running: in particular, the first
+ * failure cancels all its siblings in {@link #allOf}. When the timeout
+ * expires first, the results obtained so far are returned. Tasks run under
+ * the {@link Deadline} of the caller, if any.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class FanOut {
+	private final ExecutorService executor;
+	private final int maxConcurrency;
+
+	/**
+	 * Creates a FanOut which runs the tasks on virtual threads
+	 *
+	 * @param maxConcurrency the maximum number of tasks running at once
+	 */
+	public FanOut(int maxConcurrency) {
+		this(ExecutorUtils.newVirtualThreadExecutor("fan-out"), maxConcurrency);
+	}
+
+	/**
+	 * @param executor the {@link ExecutorService} on which the tasks run
+	 * @param maxConcurrency the maximum number of tasks running at once
+	 */
+	public FanOut(ExecutorService executor, int maxConcurrency) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("The maximum concurrency must be positive: " + maxConcurrency);
+		this.executor = executor;
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Runs all the tasks. The first failure cancels the remaining tasks.
+	 *
+	 * @return the results, which are incomplete if the timeout expired
+	 * @throws ExecutionException wrapping the exception of the first task to fail
+	 */
+	public <T> Results<T> allOf(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+		Results<T> results = invoke(tasks, tasks.size(), timeout, unit, true);
+		results.rethrow();
+		return results;
+	}
+
+	/**
+	 * Runs the tasks until one of them succeeds, tolerating the failure of
+	 * the others
+	 *
+	 * @return the result of the first task to succeed
+	 * @throws ExecutionException if all the tasks failed, wrapping the
+	 *             exception of the last one
+	 * @throws TimeoutException if no task succeeded before the timeout
+	 */
+	public <T> T anyOf(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (tasks.isEmpty())
+			throw new IllegalArgumentException("No tasks");
+		Results<T> results = invoke(tasks, 1, timeout, unit, false);
+		if (results.getSuccessCount() == 0) {
+			if (results.isTimedOut()) {
+				throw new TimeoutException("No task succeeded within " + timeout + " " + unit);
+			}
+			results.rethrow();
+		}
+		return results.getSuccesses().get(0);
+	}
+
+	/**
+	 * Runs the tasks until n of them succeed, tolerating the failure of the
+	 * others as long as n successes remain possible
+	 *
+	 * @return the results, which hold fewer than n successes if the timeout
+	 *         expired
+	 * @throws ExecutionException if too many tasks failed for n of them to
+	 *             succeed, wrapping the exception of the last one
+	 */
+	public <T> Results<T> firstN(Collection<? extends Callable<T>> tasks, int n, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+		if (n < 1 || n > tasks.size())
+			throw new IllegalArgumentException("n must be between 1 and the number of tasks " + tasks.size() + ": " + n);
+		Results<T> results = invoke(tasks, n, timeout, unit, false);
+		if (!results.isTimedOut() && results.getSuccessCount() < n) {
+			results.rethrow();
+		}
+		return results;
+	}
+
+	private <T> Results<T> invoke(Collection<? extends Callable<T>> tasks, int target, long timeout, TimeUnit unit, boolean failFast) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		BlockingQueue<Task<T>> completed = new LinkedBlockingQueue<Task<T>>();
+		List<Task<T>> started = new ArrayList<Task<T>>(Math.min(tasks.size(), maxConcurrency));
+		Results<T> results = new Results<T>(tasks.size());
+		int total = tasks.size();
+		int inFlight = 0;
+		int index = 0;
+		try {
+			for (Callable<T> callable : tasks) {
+				while (inFlight == maxConcurrency) {
+					if (!await(completed, deadline, results)) {
+						return results;
+					}
+					inFlight--;
+					if (results.isDecided(target, total, failFast)) {
+						return results;
+					}
+				}
+				Task<T> task = new Task<T>(Deadline.wrap(callable), index++, completed);
+				started.add(task);
+				executor.execute(task);
+				inFlight++;
+			}
+			while (inFlight > 0 && !results.isDecided(target, total, failFast)) {
+				if (!await(completed, deadline, results)) {
+					return results;
+				}
+				inFlight--;
+			}
+			return results;
+		} finally {
+			for (Task<T> task : started) {
+				task.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next task to complete and records its outcome
+	 *
+	 * @return false if the timeout expired first
+	 */
+	private static <T> boolean await(BlockingQueue<Task<T>> completed, long deadline, Results<T> results) throws InterruptedException {
+		Task<T> task = completed.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		if (task == null) {
+			results.timedOut = true;
+			return false;
+		}
+		try {
+			results.succeed(task.index, task.get());
+		} catch (ExecutionException e) {
+			results.fail(e.getCause());
+		}
+		return true;
+	}
+
+	/**
+	 * The outcome of a fan-out. Results are indexed in the iteration order of
+	 * the tasks.
+	 */
+	public static final class Results<T> {
+		private final Object[] values;
+		private final boolean[] succeeded;
+		private int successes;
+		private int failures;
+		private Throwable failure;
+		private boolean timedOut;
+
+		Results(int size) {
+			values = new Object[size];
+			succeeded = new boolean[size];
+		}
+
+		/**
+		 * @return the number of tasks
+		 */
+		public int size() {
+			return values.length;
+		}
+
+		/**
+		 * @return true if the task completed successfully
+		 */
+		public boolean isSucceeded(int index) {
+			return succeeded[index];
+		}
+
+		/**
+		 * @return the result of the task, or null if it did not succeed
+		 */
+		@SuppressWarnings("unchecked")
+		public T get(int index) {
+			return (T) values[index];
+		}
+
+		/**
+		 * @return the results of the tasks which succeeded, in task order
+		 */
+		@SuppressWarnings("unchecked")
+		public List<T> getSuccesses() {
+			List<T> list = new ArrayList<T>(successes);
+			for (int i = 0; i < values.length; i++) {
+				if (succeeded[i]) {
+					list.add((T) values[i]);
+				}
+			}
+			return list;
+		}
+
+		public int getSuccessCount() {
+			return successes;
+		}
+
+		public int getFailureCount() {
+			return failures;
+		}
+
+		/**
+		 * @return true if the timeout expired before the outcome was decided,
+		 *         in which case the results are partial
+		 */
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+
+		void succeed(int index, T value) {
+			values[index] = value;
+			succeeded[index] = true;
+			successes++;
+		}
+
+		void fail(Throwable t) {
+			if (failure != null && failure != t) {
+				t.addSuppressed(failure);
+			}
+			failure = t;
+			failures++;
+		}
+
+		boolean isDecided(int target, int total, boolean failFast) {
+			return successes >= target || (failures > 0 && (failFast || total - failures < target));
+		}
+
+		void rethrow() throws ExecutionException {
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+		}
+	}
+
+	private static final class Task<T> extends FutureTask<T> {
+		final int index;
+		private final BlockingQueue<Task<T>> completed;
+
+		Task(Callable<T> callable, int index, BlockingQueue<Task<T>> completed) {
+			super(callable);
+			this.index = index;
+			this.completed = completed;
+		}
+
+		@Override
+		protected void done() {
+			if (!isCancelled()) {
+				completed.add(this);
+			}
+		}
+	}
+}
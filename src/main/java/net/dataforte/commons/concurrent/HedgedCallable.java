@@ -0,0 +1,167 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements a {@link Callable} which reduces tail latency by
+ * hedging: if the callable has not completed within the hedge delay, a second
+ * copy is started, and whichever copy succeeds first provides the result while
+ * the other one is cancelled. The callable must therefore be idempotent and
+ * respond to interruption.
+ *
+ * The hedge delay adapts to the observed latencies: those of the individual
+ * copies which complete successfully are recorded in a {@link Histogram}, so
+ * that hedging does not shift the distribution it is derived from, and every
+ * {@link #WINDOW} latencies the delay is set to the configured percentile of
+ * the window, e.g. the 95th, so that roughly that fraction of the calls never
+ * needs a hedge. Hedges are also limited to a fraction of the calls over a
+ * sliding window, so that a slow dependency does not receive twice its load.
+ * A HedgedCallable is thread-safe and is meant to be invoked many times.
+ *
+ * Failures are not hedged: if the only copy fails its exception is thrown, use
+ * a {@link RetryCallable} to retry failures. Both copies run under the
+ * {@link Deadline} of the caller, if any.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <T>
+ */
+public class HedgedCallable<T> implements Callable<T> {
+	/**
+	 * The number of latencies from which each hedge delay is computed
+	 */
+	public static final int WINDOW = 1000;
+
+	private final Callable<T> callable;
+	private final ExecutorService executor;
+	private final double percentile;
+	private final RetryBudget hedgeBudget;
+	private final Histogram latencies = new Histogram();
+	private final AtomicLong recorded = new AtomicLong();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder hedges = new LongAdder();
+	private volatile long hedgeDelayNanos;
+
+	/**
+	 * Creates a HedgedCallable which hedges calls slower than the 95th
+	 * percentile, up to 5% of the calls. No calls are hedged until the first
+	 * {@link #WINDOW} latencies have been recorded.
+	 */
+	public HedgedCallable(Callable<T> callable, ExecutorService executor) {
+		this(callable, executor, 95, 0.05, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param callable the {@link Callable} to invoke
+	 * @param executor the {@link ExecutorService} on which the copies of the callable run
+	 * @param percentile the percentile of the latencies after which a hedge is started
+	 * @param maxHedgeRatio the maximum fraction of calls which may be hedged
+	 * @param initialDelay the hedge delay used until enough latencies have been recorded
+	 */
+	public HedgedCallable(Callable<T> callable, ExecutorService executor, double percentile, double maxHedgeRatio, long initialDelay, TimeUnit unit) {
+		if (percentile <= 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be in (0, 100]: " + percentile);
+		this.callable = callable;
+		this.executor = executor;
+		this.percentile = percentile;
+		this.hedgeBudget = new RetryBudget(maxHedgeRatio, 0, 10, TimeUnit.SECONDS);
+		this.hedgeDelayNanos = unit.toNanos(initialDelay);
+	}
+
+	public T call() throws Exception {
+		calls.increment();
+		hedgeBudget.recordCall();
+		CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		final Callable<T> wrapped = Deadline.wrap(callable);
+		Callable<T> task = new Callable<T>() {
+			public T call() throws Exception {
+				long start = System.nanoTime();
+				T result = wrapped.call();
+				record(System.nanoTime() - start);
+				return result;
+			}
+		};
+		Future<T> primary = completion.submit(task);
+		Future<T> hedge = null;
+		try {
+			Future<T> done = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+			if (done == null) {
+				// A hedge is a retry issued before the first attempt has failed
+				if (hedgeBudget.tryRetry()) {
+					hedge = completion.submit(task);
+					hedges.increment();
+				}
+				done = completion.take();
+			}
+			try {
+				return done.get();
+			} catch (ExecutionException e) {
+				if (hedge == null) {
+					throw unwrap(e);
+				}
+				// The other copy may still succeed
+				try {
+					return completion.take().get();
+				} catch (ExecutionException e2) {
+					throw unwrap(e2);
+				}
+			}
+		} finally {
+			primary.cancel(true);
+			if (hedge != null) {
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * @return the current hedge delay
+	 */
+	public long getHedgeDelay(TimeUnit unit) {
+		return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of calls
+	 */
+	public long getCallCount() {
+		return calls.sum();
+	}
+
+	/**
+	 * @return the number of calls for which a hedge was started
+	 */
+	public long getHedgeCount() {
+		return hedges.sum();
+	}
+
+	/**
+	 * @return the latencies of the successful copies recorded since the hedge
+	 *         delay was last computed
+	 */
+	public Histogram getLatencies() {
+		return latencies;
+	}
+
+	private void record(long latency) {
+		latencies.record(latency);
+		if (recorded.incrementAndGet() % WINDOW == 0) {
+			hedgeDelayNanos = latencies.getValueAtPercentile(percentile);
+			// Latencies recorded concurrently with the reset are lost, which is harmless
+			latencies.reset();
+		}
+	}
+
+	private static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		return cause instanceof Exception ? (Exception) cause : e;
+	}
+}
@@ -0,0 +1,185 @@
+package net.dataforte.commons.concurrent;
+
+/**
+ * Determines the concurrency limit of a {@link ConcurrencyLimiter} from the
+ * outcome and round-trip time of the completed calls.
+ *
+ * Algorithms may keep state, so an instance must not be shared between
+ * limiters. The limiter serializes the invocations of
+ * {@link #update(int, long, int, boolean)}.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public abstract class LimitAlgorithm {
+
+	/**
+	 * @return the limit before any call has completed
+	 */
+	public abstract int getInitialLimit();
+
+	/**
+	 * Computes the limit after a call has completed
+	 *
+	 * @param limit the current limit
+	 * @param rtt the duration of the call in nanoseconds
+	 * @param inFlight the number of calls in flight, including this one
+	 * @param dropped true if the call failed or timed out, a sign of overload
+	 * @return the new limit
+	 */
+	public abstract int update(int limit, long rtt, int inFlight, boolean dropped);
+
+	/**
+	 * @return an algorithm which never changes the limit
+	 */
+	public static LimitAlgorithm fixed(final int limit) {
+		checkLimits(limit, limit, limit);
+		return new LimitAlgorithm() {
+			@Override
+			public int getInitialLimit() {
+				return limit;
+			}
+
+			@Override
+			public int update(int current, long rtt, int inFlight, boolean dropped) {
+				return limit;
+			}
+
+			@Override
+			public String toString() {
+				return "LimitAlgorithm.fixed[" + limit + "]";
+			}
+		};
+	}
+
+	/**
+	 * Returns an additive-increase/multiplicative-decrease algorithm: the limit
+	 * grows by one after each successful call made while the limit was in use,
+	 * and is multiplied by the backoff ratio after each dropped call.
+	 *
+	 * @param backoffRatio the factor applied on drops, between 0 and 1
+	 */
+	public static LimitAlgorithm aimd(final int initialLimit, final int minLimit, final int maxLimit, final double backoffRatio) {
+		checkLimits(initialLimit, minLimit, maxLimit);
+		if (backoffRatio <= 0 || backoffRatio >= 1)
+			throw new IllegalArgumentException("The backoff ratio must be in (0, 1): " + backoffRatio);
+		return new LimitAlgorithm() {
+			@Override
+			public int getInitialLimit() {
+				return initialLimit;
+			}
+
+			@Override
+			public int update(int limit, long rtt, int inFlight, boolean dropped) {
+				if (dropped) {
+					return Math.max(minLimit, (int) (limit * backoffRatio));
+				} else if (inFlight * 2 >= limit) {
+					// Only grow when the limit is actually being used
+					return Math.min(maxLimit, limit + 1);
+				}
+				return limit;
+			}
+
+			@Override
+			public String toString() {
+				return "LimitAlgorithm.aimd[" + minLimit + ", " + maxLimit + ", " + backoffRatio + "]";
+			}
+		};
+	}
+
+	/**
+	 * Returns an algorithm modelled on TCP Vegas. The queue at the dependency
+	 * is estimated as limit * (1 - minimum RTT / RTT): the limit grows while the
+	 * queue is short and shrinks when it grows long. The minimum RTT is
+	 * re-measured every 1000 calls, so that it follows a changing baseline.
+	 */
+	public static LimitAlgorithm vegas(final int initialLimit, final int maxLimit) {
+		checkLimits(initialLimit, 1, maxLimit);
+		return new LimitAlgorithm() {
+			private long minRtt = Long.MAX_VALUE;
+			private int samples;
+
+			@Override
+			public int getInitialLimit() {
+				return initialLimit;
+			}
+
+			@Override
+			public int update(int limit, long rtt, int inFlight, boolean dropped) {
+				if (++samples % 1000 == 0) {
+					minRtt = Long.MAX_VALUE;
+				}
+				if (rtt > 0 && rtt < minRtt) {
+					minRtt = rtt;
+				}
+				double log = Math.max(1, Math.log10(limit));
+				if (dropped) {
+					return clamp(limit - log, 1, maxLimit);
+				} else if (inFlight * 2 < limit) {
+					return limit;
+				}
+				double queue = Math.ceil(limit * (1 - (double) minRtt / Math.max(rtt, 1)));
+				if (queue <= log) {
+					return clamp(limit + 6 * log, 1, maxLimit);
+				} else if (queue < 3 * log) {
+					return clamp(limit + log, 1, maxLimit);
+				} else if (queue > 6 * log) {
+					return clamp(limit - log, 1, maxLimit);
+				}
+				return limit;
+			}
+
+			@Override
+			public String toString() {
+				return "LimitAlgorithm.vegas[" + maxLimit + "]";
+			}
+		};
+	}
+
+	/**
+	 * Returns a gradient algorithm: the limit is scaled by the ratio between a
+	 * long-term average of the RTT and the latest RTT, so it shrinks as soon as
+	 * latency rises above its usual level, plus a headroom of sqrt(limit) so
+	 * that it can grow while latency is stable. The result is smoothed to
+	 * avoid oscillations.
+	 */
+	public static LimitAlgorithm gradient(final int initialLimit, final int minLimit, final int maxLimit) {
+		checkLimits(initialLimit, minLimit, maxLimit);
+		return new LimitAlgorithm() {
+			private double estimate = initialLimit;
+			private double longRtt;
+
+			@Override
+			public int getInitialLimit() {
+				return initialLimit;
+			}
+
+			@Override
+			public int update(int limit, long rtt, int inFlight, boolean dropped) {
+				// An exponential moving average over roughly the last 600 calls
+				longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) / 600;
+				if (!dropped && inFlight * 2 < limit) {
+					return limit;
+				}
+				double gradient = dropped ? 0.5 : Math.max(0.5, Math.min(1.0, longRtt / Math.max(rtt, 1)));
+				double target = estimate * gradient + Math.sqrt(estimate);
+				estimate = Math.max(minLimit, Math.min(maxLimit, estimate * 0.8 + target * 0.2));
+				return (int) estimate;
+			}
+
+			@Override
+			public String toString() {
+				return "LimitAlgorithm.gradient[" + minLimit + ", " + maxLimit + "]";
+			}
+		};
+	}
+
+	private static int clamp(double limit, int min, int max) {
+		return (int) Math.max(min, Math.min(max, limit));
+	}
+
+	private static void checkLimits(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || initialLimit < minLimit || initialLimit > maxLimit)
+			throw new IllegalArgumentException("Invalid limits: initial " + initialLimit + ", minimum " + minLimit + ", maximum " + maxLimit);
+	}
+}
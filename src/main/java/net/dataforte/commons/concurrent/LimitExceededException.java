@@ -0,0 +1,18 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a call is rejected by a {@link ConcurrencyLimiter} or a
+ * {@link RateLimiter}
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class LimitExceededException extends RejectedExecutionException {
+	private static final long serialVersionUID = 1L;
+
+	public LimitExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,308 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Limits the rate at which permits are handed out, to stay within the quota
+ * of a backend. {@link #tryAcquire()} never blocks: the implementations keep
+ * their state in atomic variables updated with compare-and-set, so that no
+ * lock is ever taken. When no permit is available, {@link #acquireAsync}
+ * returns a future completed once one has been obtained, without holding a
+ * thread in the meantime.
+ *
+ * Under heavy contention from many cores, {@link #striped(int, Supplier)}
+ * spreads the permits over several independent limiters.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public abstract class RateLimiter {
+	/**
+	 * The shortest wait between two attempts, so that estimates of 0 caused
+	 * by concurrent acquisitions do not turn into busy loops
+	 */
+	private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * Acquires permits if they are available
+	 *
+	 * @return true if the permits were acquired
+	 */
+	public abstract boolean tryAcquire(int permits);
+
+	/**
+	 * Estimates the time after which the permits may become available. Other
+	 * callers may take them in the meantime.
+	 *
+	 * @return the estimated delay in nanoseconds, 0 if they are available now
+	 */
+	public abstract long nanosUntilAvailable(int permits);
+
+	public boolean tryAcquire() {
+		return tryAcquire(1);
+	}
+
+	/**
+	 * Acquires permits, parking the calling thread until they are available
+	 *
+	 * @return true if the permits were acquired before the timeout
+	 */
+	public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!tryAcquire(permits)) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			LockSupport.parkNanos(this, Math.max(Math.min(nanosUntilAvailable(permits), remaining), MIN_WAIT_NANOS));
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @see #acquireAsync(int, ScheduledExecutorService)
+	 */
+	public CompletableFuture<Void> acquireAsync(ScheduledExecutorService scheduler) {
+		return acquireAsync(1, scheduler);
+	}
+
+	/**
+	 * Acquires permits asynchronously. While they are not available, a new
+	 * attempt is scheduled for when they are expected to be. Cancelling the
+	 * returned future stops the attempts.
+	 *
+	 * @return a {@link CompletableFuture} completed once the permits have been
+	 *         acquired
+	 */
+	public CompletableFuture<Void> acquireAsync(final int permits, final ScheduledExecutorService scheduler) {
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		new Runnable() {
+			public void run() {
+				if (result.isDone()) {
+					return;
+				}
+				if (tryAcquire(permits)) {
+					// If the future was cancelled concurrently the permits are lost, which errs on the side of the quota
+					result.complete(null);
+					return;
+				}
+				try {
+					scheduler.schedule(this, Math.max(nanosUntilAvailable(permits), MIN_WAIT_NANOS), TimeUnit.NANOSECONDS);
+				} catch (RejectedExecutionException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		}.run();
+		return result;
+	}
+
+	/**
+	 * Wraps a {@link Callable} so that each invocation takes a permit. If none
+	 * is available a {@link LimitExceededException} is thrown, which a
+	 * {@link RetryCallable} with a {@link BackoffPolicy} can retry.
+	 */
+	public <T> Callable<T> wrap(final Callable<T> callable) {
+		return new Callable<T>() {
+			public T call() throws Exception {
+				if (!tryAcquire()) {
+					throw new LimitExceededException(callable.toString() + " rejected: " + RateLimiter.this);
+				}
+				return callable.call();
+			}
+		};
+	}
+
+	/**
+	 * Returns a token bucket, which holds up to burst tokens and is refilled
+	 * at the specified rate. Bursts of up to burst permits are permitted after
+	 * a quiet period, while the long-term rate never exceeds the refill rate.
+	 *
+	 * The bucket is implemented as a generic cell rate algorithm, whose whole
+	 * state is the time at which the bucket will be full again, held in a
+	 * single {@link AtomicLong}.
+	 *
+	 * @param rate the number of permits refilled per unit of time
+	 * @param burst the capacity of the bucket
+	 */
+	public static RateLimiter tokenBucket(final long rate, final TimeUnit unit, final int burst) {
+		if (rate < 1)
+			throw new IllegalArgumentException("The rate must be positive: " + rate);
+		if (burst < 1)
+			throw new IllegalArgumentException("The burst must be positive: " + burst);
+		final double interval = (double) unit.toNanos(1) / rate;
+		final long tolerance = (long) (interval * burst);
+		return new RateLimiter() {
+			// The time at which the bucket will be full, if no more permits are acquired
+			private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+			@Override
+			public boolean tryAcquire(int permits) {
+				long cost = cost(permits);
+				for (;;) {
+					long now = System.nanoTime();
+					long current = fullAt.get();
+					long next = (current - now > 0 ? current : now) + cost;
+					if (next - now > tolerance) {
+						return false;
+					}
+					if (fullAt.compareAndSet(current, next)) {
+						return true;
+					}
+				}
+			}
+
+			@Override
+			public long nanosUntilAvailable(int permits) {
+				long now = System.nanoTime();
+				long current = fullAt.get();
+				long next = (current - now > 0 ? current : now) + cost(permits);
+				return Math.max(next - now - tolerance, 0);
+			}
+
+			private long cost(int permits) {
+				if (permits < 1 || permits > burst)
+					throw new IllegalArgumentException("Permits must be between 1 and the burst " + burst + ": " + permits);
+				return (long) (interval * permits);
+			}
+
+			@Override
+			public String toString() {
+				return "RateLimiter.tokenBucket[" + rate + "/" + unit + ", " + burst + "]";
+			}
+		};
+	}
+
+	/**
+	 * Returns a sliding window log, which permits at most limit permits in any
+	 * window of the specified duration. Unlike a token bucket it never lets
+	 * more than the limit through over the window, at the cost of one
+	 * timestamp per permit.
+	 *
+	 * The log is a ring of the timestamps of the last limit permits: a permit
+	 * is granted if the timestamp it replaces is older than the window. The
+	 * slots are claimed by advancing a sequence number with compare-and-set,
+	 * and their timestamps are stored right after. A thread stalled between
+	 * the two steps for as long as limit other permits are granted may let
+	 * one permit too many through.
+	 */
+	public static RateLimiter slidingWindowLog(final int limit, final long window, final TimeUnit unit) {
+		if (limit < 1)
+			throw new IllegalArgumentException("The limit must be positive: " + limit);
+		final long windowNanos = unit.toNanos(window);
+		return new RateLimiter() {
+			private final AtomicLong sequence = new AtomicLong();
+			private final AtomicLongArray log = initialLog(limit, windowNanos);
+
+			@Override
+			public boolean tryAcquire(int permits) {
+				check(permits);
+				for (;;) {
+					long seq = sequence.get();
+					long now = System.nanoTime();
+					// The timestamp of the last slot to be replaced is the most recent one
+					if (now - log.get((int) ((seq + permits - 1) % limit)) < windowNanos) {
+						return false;
+					}
+					if (sequence.compareAndSet(seq, seq + permits)) {
+						for (int i = 0; i < permits; i++) {
+							log.set((int) ((seq + i) % limit), now);
+						}
+						return true;
+					}
+				}
+			}
+
+			@Override
+			public long nanosUntilAvailable(int permits) {
+				check(permits);
+				long seq = sequence.get();
+				long oldest = log.get((int) ((seq + permits - 1) % limit));
+				return Math.max(oldest + windowNanos - System.nanoTime(), 0);
+			}
+
+			private void check(int permits) {
+				if (permits < 1 || permits > limit)
+					throw new IllegalArgumentException("Permits must be between 1 and the limit " + limit + ": " + permits);
+			}
+
+			@Override
+			public String toString() {
+				return "RateLimiter.slidingWindowLog[" + limit + "/" + window + " " + unit + "]";
+			}
+		};
+	}
+
+	/**
+	 * Returns a limiter which spreads the permits over independent stripes,
+	 * so that threads acquiring permits concurrently seldom contend on the
+	 * same atomic variable. Each thread starts from its own stripe and tries
+	 * the others when it is exhausted, so the total capacity remains usable.
+	 * Each stripe should be given its share of the overall rate, e.g.
+	 * <code>striped(8, () -&gt; tokenBucket(rate / 8, unit, burst / 8))</code>.
+	 *
+	 * @param stripes the number of stripes
+	 * @param stripe creates a stripe
+	 */
+	public static RateLimiter striped(final int stripes, Supplier<RateLimiter> stripe) {
+		if (stripes < 1)
+			throw new IllegalArgumentException("The number of stripes must be positive: " + stripes);
+		final RateLimiter[] limiters = new RateLimiter[stripes];
+		for (int i = 0; i < stripes; i++) {
+			limiters[i] = stripe.get();
+		}
+		return new RateLimiter() {
+			@Override
+			public boolean tryAcquire(int permits) {
+				int start = home();
+				for (int i = 0; i < stripes; i++) {
+					if (limiters[(start + i) % stripes].tryAcquire(permits)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public long nanosUntilAvailable(int permits) {
+				long min = Long.MAX_VALUE;
+				for (RateLimiter limiter : limiters) {
+					min = Math.min(min, limiter.nanosUntilAvailable(permits));
+				}
+				return min;
+			}
+
+			private int home() {
+				long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+				return (int) ((id >>> 32) % stripes);
+			}
+
+			@Override
+			public String toString() {
+				return "RateLimiter.striped[" + stripes + ", " + limiters[0] + "]";
+			}
+		};
+	}
+
+	/**
+	 * @return a log whose slots are old enough not to block any acquisition
+	 */
+	private static AtomicLongArray initialLog(int limit, long windowNanos) {
+		AtomicLongArray log = new AtomicLongArray(limit);
+		long past = System.nanoTime() - windowNanos;
+		for (int i = 0; i < limit; i++) {
+			log.set(i, past);
+		}
+		return log;
+	}
+}
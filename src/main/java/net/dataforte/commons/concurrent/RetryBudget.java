@@ -0,0 +1,75 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits retries to a fraction of the calls made over a sliding window, so
+ * that when a dependency fails hard the retries of all the callers sharing
+ * the budget add at most that fraction to its load, instead of multiplying it
+ * by the number of attempts. A minimum number of retries per window is always
+ * allowed, so that callers with little traffic can still retry.
+ *
+ * A RetryBudget is thread-safe and is meant to be shared, e.g. by all the
+ * {@link RetryCallable}s calling the same dependency.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class RetryBudget {
+	private static final int CALLS = 0;
+	private static final int RETRIES = 1;
+
+	private final double ratio;
+	private final int minimumRetries;
+	private final SlidingWindow window;
+
+	/**
+	 * Creates a budget allowing retries for 10% of the calls over 10 seconds,
+	 * and at least 10 retries
+	 */
+	public RetryBudget() {
+		this(0.1, 10, 10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param ratio the number of retries allowed for every call
+	 * @param minimumRetries the number of retries allowed within the window
+	 *            regardless of the number of calls
+	 * @param window the duration of the window
+	 */
+	public RetryBudget(double ratio, int minimumRetries, long window, TimeUnit unit) {
+		if (ratio < 0)
+			throw new IllegalArgumentException("The ratio must not be negative: " + ratio);
+		this.ratio = ratio;
+		this.minimumRetries = minimumRetries;
+		this.window = new SlidingWindow(2, 10, window, unit);
+	}
+
+	/**
+	 * Records a first attempt, which adds to the budget
+	 */
+	public void recordCall() {
+		window.record(CALLS, System.nanoTime());
+	}
+
+	/**
+	 * Withdraws a retry from the budget
+	 *
+	 * @return true if the retry may be attempted, false if the budget is exhausted
+	 */
+	public boolean tryRetry() {
+		long now = System.nanoTime();
+		// Concurrent withdrawals may slightly overdraw the budget
+		if (window.sum(RETRIES, now) >= minimumRetries + ratio * window.sum(CALLS, now)) {
+			return false;
+		}
+		window.record(RETRIES, now);
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		long now = System.nanoTime();
+		return "RetryBudget[ratio=" + ratio + ", calls=" + window.sum(CALLS, now) + ", retries=" + window.sum(RETRIES, now) + "]";
+	}
+}
@@ -2,6 +2,12 @@ package net.dataforte.commons.concurrent;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import net.dataforte.commons.slf4j.LoggerFactory;
 
@@ -9,8 +15,23 @@ import org.slf4j.Logger;
 
 /**
  * This class implements a {@link Callable} which can be retried a specified
- * number of times before failing
- * 
+ * number of times before failing. The delay between attempts is determined by
+ * a {@link BackoffPolicy}: with {@link #call()} the calling thread sleeps
+ * between attempts, while {@link #callAsync(ScheduledExecutorService)}
+ * schedules every attempt on a {@link ScheduledExecutorService}, so no thread
+ * is held while waiting.
+ *
+ * An optional {@link RetryBudget}, shared with other RetryCallables, limits
+ * the retries when many calls fail at once, and an optional
+ * {@link CircuitBreaker} is consulted before each attempt: while it is open,
+ * a {@link CircuitBreakerOpenException} is thrown without invoking the
+ * callable. Both should be set before the RetryCallable is used.
+ *
+ * The attempts run under the current {@link Deadline}, or under one created
+ * from the timeout if {@link #setTimeout(long, TimeUnit)} was used: no retry
+ * is made once the backoff delay would extend past it, and an attempt still
+ * running when it expires is interrupted.
+ *
  * @author Tristan Tarrant
  *
  * @param <T>
@@ -21,31 +42,311 @@ public class RetryCallable<T> implements Callable<T> {
 
 	private final int maxRetries;
 
+	private final BackoffPolicy backoffPolicy;
+
+	private RetryBudget retryBudget;
+
+	private CircuitBreaker circuitBreaker;
+
+	private long timeoutNanos;
+
 	private final Logger log = LoggerFactory.make();
 
+	/**
+	 * Creates a RetryCallable which retries immediately
+	 */
 	public RetryCallable(Callable<T> callable, int retryCount) {
+		this(callable, retryCount, BackoffPolicy.none());
+	}
+
+	/**
+	 * @param callable the {@link Callable} to invoke
+	 * @param retryCount the maximum number of attempts
+	 * @param backoffPolicy the policy which determines the delay before each retry
+	 */
+	public RetryCallable(Callable<T> callable, int retryCount, BackoffPolicy backoffPolicy) {
 		this.callable = callable;
 		this.maxRetries = retryCount;
+		this.backoffPolicy = backoffPolicy;
+	}
+
+	public RetryBudget getRetryBudget() {
+		return retryBudget;
+	}
+
+	/**
+	 * Sets the {@link RetryBudget} from which every retry is withdrawn. If
+	 * null, retries are only limited by the retry count.
+	 */
+	public void setRetryBudget(RetryBudget retryBudget) {
+		this.retryBudget = retryBudget;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Sets the {@link CircuitBreaker} which must permit each attempt and which
+	 * is notified of its outcome
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets the time within which all the attempts, including the backoff
+	 * delays, must complete. If 0, which is the default, the attempts are only
+	 * bounded by the current {@link Deadline}, if any.
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("The timeout must not be negative: " + timeout);
+		this.timeoutNanos = unit.toNanos(timeout);
 	}
 
 	public T call() throws Exception {
+		if (timeoutNanos > 0) {
+			return Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS).call(new Callable<T>() {
+				public T call() throws Exception {
+					return attempt(Deadline.current());
+				}
+			});
+		}
+		return attempt(Deadline.current());
+	}
+
+	private T attempt(Deadline deadline) throws Exception {
 		int retry = 0;
+		long delay = 0;
+		Exception failure = null;
+		if (retryBudget != null) {
+			retryBudget.recordCall();
+		}
 		for(;;) {
+			checkDeadline(deadline, retry, failure);
+			acquire(retry, failure);
 			try {
-				return callable.call();
+				T result = callable.call();
+				onSuccess();
+				return result;
 			} catch (final InterruptedException e) {
+				release();
 				throw e;
 			} catch (final CancellationException e) {
+				release();
 				throw e;
 			} catch (final Exception e) {
-				
+
 				++retry;
-				if (retry == maxRetries)
+				if (!shouldRetry(retry, e))
 					throw e;
-				log.warn(callable.toString()+" threw exception "+e.getMessage()+" on try "+retry+"/"+maxRetries);
+				failure = e;
+				delay = backoffPolicy.getDelayNanos(retry, delay);
+				checkDeadline(deadline, delay, retry, failure);
+				if (delay > 0) {
+					TimeUnit.NANOSECONDS.sleep(delay);
+				}
 			}
 		}
 
 	}
 
+	/**
+	 * Performs the attempts on the threads of the scheduler, which should
+	 * therefore only be used for short computations
+	 *
+	 * @see #callAsync(ScheduledExecutorService, Executor)
+	 */
+	public CompletableFuture<T> callAsync(ScheduledExecutorService scheduler) {
+		return callAsync(scheduler, null);
+	}
+
+	/**
+	 * Starts the attempts asynchronously. The scheduler is only used to wait
+	 * for the backoff delays, after which the attempt is handed to the executor.
+	 * Cancelling the returned future prevents further attempts. The attempts
+	 * run under the {@link Deadline} which is current when this method is
+	 * invoked, or under one created from the timeout, and the future is
+	 * completed with a {@link DeadlineExceededException} when it expires.
+	 *
+	 * @param scheduler the {@link ScheduledExecutorService} used to schedule retries
+	 * @param executor the {@link Executor} which performs the attempts, or
+	 *            null to perform them on the scheduler
+	 * @return a {@link CompletableFuture} completed with the result of the
+	 *         first successful attempt, or with the exception of the last one
+	 */
+	public CompletableFuture<T> callAsync(ScheduledExecutorService scheduler, Executor executor) {
+		if (retryBudget != null) {
+			retryBudget.recordCall();
+		}
+		final Deadline deadline = timeoutNanos > 0 ? Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS) : Deadline.current();
+		final AsyncAttempt attempt = new AsyncAttempt(scheduler, executor, deadline);
+		final Future<?> expiry = deadline == null ? null : schedule(scheduler, () -> {
+			attempt.result.completeExceptionally(new DeadlineExceededException(callable.toString() + " did not complete: " + deadline));
+		}, deadline.remaining(TimeUnit.NANOSECONDS));
+		attempt.result.whenComplete((value, throwable) -> {
+			Future<?> pending = attempt.pending;
+			if (pending != null) {
+				pending.cancel(false);
+			}
+			if (expiry != null) {
+				expiry.cancel(false);
+			}
+		});
+		attempt.schedule(0);
+		return attempt.result;
+	}
+
+	private static Future<?> schedule(ScheduledExecutorService scheduler, Runnable task, long delayNanos) {
+		try {
+			return scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @throws DeadlineExceededException if the deadline has expired
+	 */
+	private void checkDeadline(Deadline deadline, int retry, Exception failure) throws DeadlineExceededException {
+		checkDeadline(deadline, 0, retry, failure);
+	}
+
+	/**
+	 * @throws DeadlineExceededException if the deadline expires within the delay
+	 */
+	private void checkDeadline(Deadline deadline, long delayNanos, int retry, Exception failure) throws DeadlineExceededException {
+		if (deadline != null && (deadline.isExpired() || delayNanos >= deadline.remaining(TimeUnit.NANOSECONDS))) {
+			DeadlineExceededException e = new DeadlineExceededException(callable.toString() + " not attempted on try " + (retry + 1) + "/" + maxRetries + ": " + deadline);
+			e.initCause(failure);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param failure the exception thrown by the previous attempt, if any
+	 */
+	private void acquire(int retry, Exception failure) throws CircuitBreakerOpenException {
+		if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+			throw new CircuitBreakerOpenException(callable.toString() + " not attempted on try " + (retry + 1) + "/" + maxRetries + ": " + circuitBreaker, failure);
+		}
+	}
+
+	private void onSuccess() {
+		if (circuitBreaker != null) {
+			circuitBreaker.onSuccess();
+		}
+	}
+
+	private void release() {
+		if (circuitBreaker != null) {
+			circuitBreaker.release();
+		}
+	}
+
+	/**
+	 * Records a failed attempt and tells whether another one may be made
+	 */
+	private boolean shouldRetry(int retry, Exception e) {
+		if (circuitBreaker != null) {
+			circuitBreaker.onFailure();
+		}
+		if (retry == maxRetries) {
+			return false;
+		}
+		if (retryBudget != null && !retryBudget.tryRetry()) {
+			log.warn(callable.toString()+" threw exception "+e.getMessage()+" on try "+retry+"/"+maxRetries+", retry budget exhausted");
+			return false;
+		}
+		log.warn(callable.toString()+" threw exception "+e.getMessage()+" on try "+retry+"/"+maxRetries);
+		return true;
+	}
+
+	/**
+	 * Performs one attempt and schedules the next one if it fails. Attempts
+	 * never overlap, so the state is only accessed by one thread at a time.
+	 */
+	private final class AsyncAttempt implements Runnable {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final ScheduledExecutorService scheduler;
+		final Executor executor;
+		final Deadline deadline;
+		volatile Future<?> pending;
+		int retry;
+		long delay;
+		Exception failure;
+
+		AsyncAttempt(ScheduledExecutorService scheduler, Executor executor, Deadline deadline) {
+			this.scheduler = scheduler;
+			this.executor = executor;
+			this.deadline = deadline;
+		}
+
+		public void run() {
+			if (result.isDone()) {
+				return;
+			}
+			try {
+				checkDeadline(deadline, retry, failure);
+				acquire(retry, failure);
+			} catch (final RejectedExecutionException | CancellationException e) {
+				result.completeExceptionally(e);
+				return;
+			}
+			try {
+				T value = deadline == null ? callable.call() : deadline.call(callable);
+				onSuccess();
+				result.complete(value);
+			} catch (final InterruptedException e) {
+				release();
+				result.completeExceptionally(e);
+			} catch (final CancellationException e) {
+				release();
+				result.completeExceptionally(e);
+			} catch (final Exception e) {
+				++retry;
+				if (!shouldRetry(retry, e)) {
+					result.completeExceptionally(e);
+					return;
+				}
+				failure = e;
+				delay = backoffPolicy.getDelayNanos(retry, delay);
+				try {
+					checkDeadline(deadline, delay, retry, failure);
+				} catch (final DeadlineExceededException e2) {
+					result.completeExceptionally(e2);
+					return;
+				}
+				schedule(delay);
+			}
+		}
+
+		void schedule(long delayNanos) {
+			try {
+				if (executor == null) {
+					pending = scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+				} else {
+					pending = scheduler.schedule(() -> {
+						try {
+							executor.execute(this);
+						} catch (RejectedExecutionException e) {
+							result.completeExceptionally(e);
+						}
+					}, delayNanos, TimeUnit.NANOSECONDS);
+				}
+			} catch (RejectedExecutionException e) {
+				result.completeExceptionally(e);
+			}
+			// The future may have been cancelled before the attempt was scheduled
+			if (result.isDone() && pending != null) {
+				pending.cancel(false);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,254 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free queue for handing elements from many producer threads
+ * to one or more consumer threads, e.g. for logging, metrics or write-behind
+ * pipelines. The slots are allocated once, when the buffer is created, so
+ * that no allocation happens per element, unlike a linked queue.
+ *
+ * Each slot carries a sequence number, which tells producers whether it is
+ * free and consumers whether it has been published. Producers claim slots by
+ * advancing the tail with compare-and-set. With multiple consumers the head
+ * is advanced in the same way, while a single consumer, see
+ * {@link #RingBuffer(int, WaitStrategy, boolean)}, advances it with plain
+ * ordered writes. {@link #drainTo(Consumer, int)} claims a whole batch of
+ * elements at once, so that consumers contend once per batch rather than once
+ * per element.
+ *
+ * The non-blocking methods {@link #offer(Object)} and {@link #poll()} fail
+ * immediately, while {@link #put(Object)}, {@link #take()} and the timed
+ * {@link #drainTo(Consumer, int, long, TimeUnit)} wait according to a
+ * {@link WaitStrategy}.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <E> the type of the elements
+ */
+public class RingBuffer<E> {
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	private final boolean singleConsumer;
+	private final AtomicLong tail = new PaddedAtomicLong();
+	private final AtomicLong head = new PaddedAtomicLong();
+
+	/**
+	 * Creates a multi-consumer buffer which waits with
+	 * {@link WaitStrategy#yielding()}
+	 *
+	 * @param capacity the number of slots, rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		this(capacity, WaitStrategy.yielding(), false);
+	}
+
+	/**
+	 * @param capacity the number of slots, rounded up to a power of two
+	 * @param waitStrategy how threads wait in the blocking methods
+	 * @param singleConsumer true if only one thread at a time consumes
+	 *            elements, which makes consumption cheaper
+	 */
+	public RingBuffer(int capacity, WaitStrategy waitStrategy, boolean singleConsumer) {
+		if (capacity < 2 || capacity > 1 << 30)
+			throw new IllegalArgumentException("The capacity must be between 2 and 2^30: " + capacity);
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.elements = new AtomicReferenceArray<E>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+		this.singleConsumer = singleConsumer;
+	}
+
+	/**
+	 * @return the number of slots
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return an estimate of the number of elements in the buffer
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Adds an element if the buffer is not full
+	 *
+	 * @return true if the element was added
+	 */
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		for (;;) {
+			long pos = tail.get();
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements.lazySet(index, e);
+					// Publishes the element: the ordered write happens after the element write
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				// The slot still holds the element of the previous lap
+				return false;
+			}
+			// Otherwise another producer claimed the slot, retry with the new tail
+		}
+	}
+
+	/**
+	 * Adds an element, waiting for a free slot if the buffer is full
+	 */
+	public void put(E e) throws InterruptedException {
+		for (int attempts = 1; !offer(e); attempts = nextAttempt(attempts)) {
+			idle(attempts);
+		}
+	}
+
+	/**
+	 * @return the oldest element, or null if the buffer is empty
+	 */
+	public E poll() {
+		for (;;) {
+			long pos = head.get();
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (claim(pos, 1)) {
+					return consume(pos);
+				}
+			} else if (diff < 0) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the oldest element, waiting for one if the buffer is empty
+	 */
+	public E take() throws InterruptedException {
+		E e;
+		for (int attempts = 1; (e = poll()) == null; attempts = nextAttempt(attempts)) {
+			idle(attempts);
+		}
+		return e;
+	}
+
+	/**
+	 * Removes up to maxElements elements at once and passes them to the
+	 * consumer, in order
+	 *
+	 * @return the number of elements consumed, 0 if the buffer was empty
+	 */
+	public int drainTo(Consumer<? super E> consumer, int maxElements) {
+		for (;;) {
+			long pos = head.get();
+			int count = 0;
+			// Counts the consecutive published slots
+			while (count < maxElements && count <= mask && sequences.get((int) (pos + count) & mask) == pos + count + 1) {
+				count++;
+			}
+			if (count == 0) {
+				if (sequences.get((int) pos & mask) - (pos + 1) < 0) {
+					return 0;
+				}
+				// The head moved concurrently
+				continue;
+			}
+			if (claim(pos, count)) {
+				for (int i = 0; i < count; i++) {
+					consumer.accept(consume(pos + i));
+				}
+				return count;
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #drainTo(Consumer, int)}, but waits up to the timeout for
+	 * at least one element
+	 *
+	 * @return the number of elements consumed, 0 if the timeout expired
+	 */
+	public int drainTo(Consumer<? super E> consumer, int maxElements, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int count;
+		for (int attempts = 1; (count = drainTo(consumer, maxElements)) == 0; attempts = nextAttempt(attempts)) {
+			if (deadline - System.nanoTime() <= 0) {
+				return 0;
+			}
+			idle(attempts);
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "RingBuffer[capacity=" + capacity() + ", size=" + size() + ", " + waitStrategy + "]";
+	}
+
+	private boolean claim(long pos, int count) {
+		if (singleConsumer) {
+			head.lazySet(pos + count);
+			return true;
+		}
+		return head.compareAndSet(pos, pos + count);
+	}
+
+	/**
+	 * Takes the element out of a claimed slot and hands the slot back to the
+	 * producers of the next lap
+	 */
+	private E consume(long pos) {
+		int index = (int) pos & mask;
+		E e = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, pos + mask + 1);
+		return e;
+	}
+
+	/**
+	 * Counts a failed attempt, saturating instead of overflowing on a long
+	 * wait, which would send the wait strategy back to spinning
+	 */
+	static int nextAttempt(int attempts) {
+		return attempts == Integer.MAX_VALUE ? attempts : attempts + 1;
+	}
+
+	private void idle(int attempts) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		waitStrategy.idle(attempts);
+	}
+
+	/**
+	 * An {@link AtomicLong} padded to a cache line, so that the head and the
+	 * tail, which are written by different threads, do not share one
+	 */
+	@SuppressWarnings("unused")
+	static final class PaddedAtomicLong extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
@@ -0,0 +1,122 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls for the same key: while a call for a key is in
+ * flight, further calls for that key do not invoke their callable but wait
+ * for the result of the first one. Unlike a Memoizer, the result is
+ * forgotten as soon as the call completes, so the next call for the key
+ * invokes its callable again: this deduplicates requests to a backend without
+ * serving stale data.
+ *
+ * Failures are shared in the same way: every caller waiting on a call which
+ * throws receives its exception, wrapped in an {@link ExecutionException}.
+ *
+ * @author Tristan Tarrant
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ */
+public class SingleFlight<K, V> {
+	private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<K, CompletableFuture<V>>();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder shared = new LongAdder();
+
+	/**
+	 * Invokes the callable on the calling thread, unless a call for the same
+	 * key is already in flight, in which case its result is awaited instead
+	 *
+	 * @return the result of the call
+	 * @throws ExecutionException wrapping the exception thrown by the call
+	 */
+	public V call(K key, Callable<V> callable) throws ExecutionException, InterruptedException {
+		calls.increment();
+		CompletableFuture<V> flight = new CompletableFuture<V>();
+		CompletableFuture<V> existing = flights.putIfAbsent(key, flight);
+		if (existing != null) {
+			shared.increment();
+			return existing.get();
+		}
+		run(key, flight, callable);
+		return flight.get();
+	}
+
+	/**
+	 * Like {@link #call(Object, Callable)}, but the callable of the first call
+	 * for a key is invoked on the executor. Cancelling the returned future
+	 * does not affect the other callers.
+	 *
+	 * @return a {@link CompletableFuture} completed with the result of the call
+	 */
+	public CompletableFuture<V> submit(final K key, final Callable<V> callable, Executor executor) {
+		calls.increment();
+		final CompletableFuture<V> flight = new CompletableFuture<V>();
+		CompletableFuture<V> existing = flights.putIfAbsent(key, flight);
+		if (existing != null) {
+			shared.increment();
+			return copy(existing);
+		}
+		try {
+			executor.execute(() -> run(key, flight, callable));
+		} catch (RuntimeException e) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(e);
+		}
+		return copy(flight);
+	}
+
+	/**
+	 * @return the number of keys with a call in flight
+	 */
+	public int getInFlightCount() {
+		return flights.size();
+	}
+
+	/**
+	 * @return the number of calls made
+	 */
+	public long getCallCount() {
+		return calls.sum();
+	}
+
+	/**
+	 * @return the number of calls which were served by another call in flight
+	 */
+	public long getSharedCount() {
+		return shared.sum();
+	}
+
+	private void run(K key, CompletableFuture<V> flight, Callable<V> callable) {
+		V value;
+		try {
+			value = callable.call();
+		} catch (Throwable t) {
+			// The call is forgotten before completing, so that woken up callers do not join it
+			flights.remove(key, flight);
+			flight.completeExceptionally(t);
+			return;
+		}
+		flights.remove(key, flight);
+		flight.complete(value);
+	}
+
+	private static <V> CompletableFuture<V> copy(CompletableFuture<V> flight) {
+		final CompletableFuture<V> copy = new CompletableFuture<V>();
+		flight.whenComplete((value, t) -> {
+			if (t == null) {
+				copy.complete(value);
+			} else {
+				copy.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+			}
+		});
+		return copy;
+	}
+}
@@ -0,0 +1,77 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events of a few kinds over a sliding time window, split into a ring
+ * of buckets. Recording an event is lock-free and costs a clock read and an
+ * atomic increment, while summing walks all the buckets. When a bucket is
+ * reused for a new period, increments racing with its reset may be lost, so
+ * the counts are approximate.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+final class SlidingWindow {
+	private final int kinds;
+	private final int buckets;
+	private final long bucketNanos;
+	private final AtomicLongArray periods;
+	private final AtomicLongArray counts;
+
+	/**
+	 * @param kinds the number of kinds of events
+	 * @param buckets the number of buckets
+	 * @param window the duration of the window
+	 */
+	SlidingWindow(int kinds, int buckets, long window, TimeUnit unit) {
+		if (buckets < 1 || unit.toNanos(window) < buckets)
+			throw new IllegalArgumentException("Invalid window: " + buckets + " buckets over " + window + " " + unit);
+		this.kinds = kinds;
+		this.buckets = buckets;
+		this.bucketNanos = unit.toNanos(window) / buckets;
+		this.periods = new AtomicLongArray(buckets);
+		this.counts = new AtomicLongArray(buckets * kinds);
+		for (int i = 0; i < buckets; i++) {
+			// No bucket belongs to the current period initially
+			periods.set(i, Long.MIN_VALUE);
+		}
+	}
+
+	void record(int kind, long now) {
+		long period = Math.floorDiv(now, bucketNanos);
+		int bucket = (int) Math.floorMod(period, (long) buckets);
+		long current = periods.get(bucket);
+		if (current < period && periods.compareAndSet(bucket, current, period)) {
+			for (int k = 0; k < kinds; k++) {
+				counts.set(bucket * kinds + k, 0);
+			}
+		}
+		counts.incrementAndGet(bucket * kinds + kind);
+	}
+
+	/**
+	 * @return the number of events of the specified kind within the window
+	 */
+	long sum(int kind, long now) {
+		long period = Math.floorDiv(now, bucketNanos);
+		long sum = 0;
+		for (int bucket = 0; bucket < buckets; bucket++) {
+			long p = periods.get(bucket);
+			if (p <= period && p > period - buckets) {
+				sum += counts.get(bucket * kinds + kind);
+			}
+		}
+		return sum;
+	}
+
+	void reset() {
+		for (int i = 0; i < buckets; i++) {
+			periods.set(i, Long.MIN_VALUE);
+		}
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+}
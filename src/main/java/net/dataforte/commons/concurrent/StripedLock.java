@@ -0,0 +1,129 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Provides mutual exclusion per key with a bounded number of locks: each key
+ * is mapped by its hash to one of a fixed number of stripes, so that no lock
+ * needs to be created or removed as keys come and go. Distinct keys may share
+ * a stripe and thus exclude each other; more stripes make this less likely,
+ * at the cost of memory.
+ *
+ * Each stripe is a {@link ReentrantReadWriteLock}, so that readers of a key
+ * can proceed concurrently. Several keys can be locked at once with
+ * {@link #withLocks(Collection, Callable)}, which acquires the stripes in a
+ * fixed order to avoid deadlocks.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public class StripedLock {
+	private final ReadWriteLock[] stripes;
+	private final int mask;
+
+	/**
+	 * Creates a StripedLock with four stripes per available processor
+	 */
+	public StripedLock() {
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes the number of stripes, rounded up to a power of two
+	 */
+	public StripedLock(int stripes) {
+		if (stripes < 1 || stripes > 1 << 30)
+			throw new IllegalArgumentException("The number of stripes must be between 1 and 2^30: " + stripes);
+		int size = Integer.highestOneBit(stripes - 1) << 1;
+		this.stripes = new ReadWriteLock[Math.max(size, 1)];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new ReentrantReadWriteLock();
+		}
+		this.mask = this.stripes.length - 1;
+	}
+
+	/**
+	 * @return the number of stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * @return the exclusive lock of the stripe of the key
+	 */
+	public Lock get(Object key) {
+		return stripes[indexOf(key)].writeLock();
+	}
+
+	/**
+	 * @return the shared lock of the stripe of the key
+	 */
+	public Lock getShared(Object key) {
+		return stripes[indexOf(key)].readLock();
+	}
+
+	/**
+	 * Invokes the callable while holding the exclusive lock of the key
+	 */
+	public <T> T withLock(Object key, Callable<T> callable) throws Exception {
+		Lock lock = get(key);
+		lock.lock();
+		try {
+			return callable.call();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Invokes the callable while holding the shared lock of the key
+	 */
+	public <T> T withSharedLock(Object key, Callable<T> callable) throws Exception {
+		Lock lock = getShared(key);
+		lock.lock();
+		try {
+			return callable.call();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Invokes the callable while holding the exclusive locks of all the keys.
+	 * The stripes are locked in ascending order, so that concurrent
+	 * invocations with overlapping keys cannot deadlock.
+	 */
+	public <T> T withLocks(Collection<?> keys, Callable<T> callable) throws Exception {
+		TreeSet<Integer> indices = new TreeSet<Integer>();
+		for (Object key : keys) {
+			indices.add(indexOf(key));
+		}
+		Integer[] order = indices.toArray(new Integer[indices.size()]);
+		int locked = 0;
+		try {
+			for (; locked < order.length; locked++) {
+				stripes[order[locked]].writeLock().lock();
+			}
+			return callable.call();
+		} finally {
+			while (locked > 0) {
+				stripes[order[--locked]].writeLock().unlock();
+			}
+		}
+	}
+
+	private int indexOf(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		// Spreads the high bits, as poor hash codes often differ only there
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & mask;
+	}
+}
@@ -0,0 +1,93 @@
+package net.dataforte.commons.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Determines how a thread waits for a {@link RingBuffer} to become non-empty
+ * or non-full. The strategies trade latency for CPU usage: busy spinning
+ * reacts fastest but burns a core per waiting thread, while parking frees
+ * the CPU at the cost of a wake-up delay. None of them needs the other side
+ * to signal, so producers and consumers never take a lock.
+ *
+ * @author Tristan Tarrant
+ *
+ */
+public abstract class WaitStrategy {
+	/**
+	 * The number of checks performed before a strategy starts giving up the CPU
+	 */
+	private static final int SPIN_TRIES = 100;
+
+	/**
+	 * Waits a little before the condition is checked again
+	 *
+	 * @param attempts the number of times the condition has been checked
+	 *            unsuccessfully so far, starting from 1 and saturating at
+	 *            {@link Integer#MAX_VALUE}
+	 */
+	public abstract void idle(int attempts);
+
+	/**
+	 * @return a strategy which spins continuously, for threads which own a
+	 *         dedicated core
+	 */
+	public static WaitStrategy busySpin() {
+		return new WaitStrategy() {
+			@Override
+			public void idle(int attempts) {
+				// Nothing to do, the caller spins
+			}
+
+			@Override
+			public String toString() {
+				return "WaitStrategy.busySpin";
+			}
+		};
+	}
+
+	/**
+	 * @return a strategy which spins for a while and then yields the CPU to
+	 *         other threads between checks
+	 */
+	public static WaitStrategy yielding() {
+		return new WaitStrategy() {
+			@Override
+			public void idle(int attempts) {
+				if (attempts > SPIN_TRIES) {
+					Thread.yield();
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "WaitStrategy.yielding";
+			}
+		};
+	}
+
+	/**
+	 * @return a strategy which spins, then yields, then parks the thread for
+	 *         the specified time between checks
+	 */
+	public static WaitStrategy parking(final long time, final TimeUnit unit) {
+		final long nanos = unit.toNanos(time);
+		if (nanos <= 0)
+			throw new IllegalArgumentException("The park time must be positive: " + time);
+		return new WaitStrategy() {
+			@Override
+			public void idle(int attempts) {
+				if (attempts > 2 * SPIN_TRIES) {
+					LockSupport.parkNanos(this, nanos);
+				} else if (attempts > SPIN_TRIES) {
+					Thread.yield();
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "WaitStrategy.parking[" + time + " " + unit + "]";
+			}
+		};
+	}
+}
@@ -16,33 +16,249 @@
 
 package net.dataforte.commons.io;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import net.dataforte.commons.concurrent.RingBuffer;
+import net.dataforte.commons.concurrent.WaitStrategy;
 
 /**
  * Utility methods for manipulating streams
- * 
+ *
  * @author Tristan Tarrant
  *
  */
 public class StreamUtils {
-	
 	/**
-	 * Copies all data, one byte at a time from the specified {@link InputStream} to the specified {@link OutputStream} until EOF is reached.
-	 * No buffering is performed, therefore, for maximum performance, instances of {@link BufferedInputStream} and {@link BufferedOutputStream}
-	 * should be used.
-	 * 
+	 * The size of the buffers used to copy data
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The largest amount of data handed to a single
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)} or
+	 * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, as
+	 * some platforms fail on larger transfers
+	 */
+	static final long MAX_TRANSFER = 8L * 1024 * 1024;
+
+	/**
+	 * Recycled copy buffers. A pool rather than a thread-local keeps the
+	 * number of buffers bounded when copies run on many short-lived or
+	 * virtual threads.
+	 */
+	private static final RingBuffer<byte[]> BUFFERS = new RingBuffer<byte[]>(2 * Runtime.getRuntime().availableProcessors(), WaitStrategy.busySpin(), false);
+
+	/**
+	 * Receives the progress of a copy
+	 */
+	public interface ProgressListener {
+		/**
+		 * Invoked after each chunk is copied, and once more when the copy is
+		 * complete
+		 *
+		 * @param bytes the number of bytes copied so far
+		 * @param elapsedNanos the time elapsed since the copy started
+		 * @param done true if the copy is complete
+		 */
+		void onProgress(long bytes, long elapsedNanos, boolean done);
+	}
+
+	/**
+	 * A {@link ProgressListener} which records the outcome of a copy
+	 */
+	public static class ThroughputMeter implements ProgressListener {
+		private volatile long bytes;
+		private volatile long elapsedNanos;
+
+		public void onProgress(long bytes, long elapsedNanos, boolean done) {
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return the number of bytes copied so far
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @return the average throughput in bytes per second
+		 */
+		public double getBytesPerSecond() {
+			long elapsed = elapsedNanos;
+			return elapsed == 0 ? 0 : bytes * 1e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d bytes in %d ms (%.1f MB/s)", bytes, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getBytesPerSecond() / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * Copies all data from the specified {@link InputStream} to the specified {@link OutputStream} until EOF is reached,
+	 * and flushes the OutputStream.
+	 *
 	 * @param is The source InputStream
 	 * @param os The target OutputStream
 	 * @throws IOException
+	 * @see #copy(InputStream, OutputStream, ProgressListener)
 	 */
 	public static void copyStream(InputStream is, OutputStream os) throws IOException {
-		for(int b=is.read(); b>=0; b=is.read()) {
-			os.write(b);
+		copy(is, os, null);
+	}
+
+	/**
+	 * Copies all data from the specified {@link InputStream} to the specified {@link OutputStream} until EOF is reached,
+	 * and flushes the OutputStream. Data is copied in chunks of {@link #BUFFER_SIZE} bytes through pooled buffers, so
+	 * the streams do not need to be buffered. If the source is a {@link FileInputStream}, the data is transferred by
+	 * its {@link FileChannel} instead, which lets the operating system copy it without passing through the Java heap
+	 * when the target is a file or a socket.
+	 *
+	 * @param is The source InputStream
+	 * @param os The target OutputStream
+	 * @param listener notified of the progress of the copy, may be null
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public static long copy(InputStream is, OutputStream os, ProgressListener listener) throws IOException {
+		long start = System.nanoTime();
+		long count = 0;
+		if (is instanceof FileInputStream) {
+			FileChannel source = ((FileInputStream) is).getChannel();
+			// Socket streams extend FileInputStream on some JDKs but have no channel
+			if (source != null) {
+				count = transferTo(source, target(os), start, listener);
+			}
+		}
+		byte[] buffer = acquireBuffer();
+		try {
+			for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+				os.write(buffer, 0, n);
+				count += n;
+				if (listener != null) {
+					listener.onProgress(count, System.nanoTime() - start, false);
+				}
+			}
+		} finally {
+			releaseBuffer(buffer);
 		}
 		os.flush();
+		if (listener != null) {
+			listener.onProgress(count, System.nanoTime() - start, true);
+		}
+		return count;
+	}
+
+	/**
+	 * Copies all data from the specified {@link ReadableByteChannel} to the specified {@link WritableByteChannel}
+	 * until EOF is reached. If either channel is a {@link FileChannel}, the data is transferred with
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)} or
+	 * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, which avoids copying it through the Java heap.
+	 * The channels must be in blocking mode.
+	 *
+	 * @param source The source channel
+	 * @param target The target channel
+	 * @param listener notified of the progress of the copy, may be null
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public static long copy(ReadableByteChannel source, WritableByteChannel target, ProgressListener listener) throws IOException {
+		long start = System.nanoTime();
+		long count = 0;
+		if (source instanceof FileChannel) {
+			count = transferTo((FileChannel) source, target, start, listener);
+		} else if (target instanceof FileChannel) {
+			FileChannel file = (FileChannel) target;
+			long position = file.position();
+			for (long n = file.transferFrom(source, position, MAX_TRANSFER); n > 0; n = file.transferFrom(source, position, MAX_TRANSFER)) {
+				position += n;
+				count += n;
+				if (listener != null) {
+					listener.onProgress(count, System.nanoTime() - start, false);
+				}
+			}
+			file.position(position);
+		}
+		// transferFrom returns 0 both at EOF and on some channels which cannot be transferred from, so finish by reading
+		byte[] array = acquireBuffer();
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(array);
+			while (source.read(buffer) >= 0) {
+				buffer.flip();
+				count += buffer.remaining();
+				while (buffer.hasRemaining()) {
+					target.write(buffer);
+				}
+				buffer.clear();
+				if (listener != null) {
+					listener.onProgress(count, System.nanoTime() - start, false);
+				}
+			}
+		} finally {
+			releaseBuffer(array);
+		}
+		if (listener != null) {
+			listener.onProgress(count, System.nanoTime() - start, true);
+		}
+		return count;
+	}
+
+	/**
+	 * Transfers the source from its current position up to its current size,
+	 * and advances its position accordingly
+	 */
+	private static long transferTo(FileChannel source, WritableByteChannel target, long start, ProgressListener listener) throws IOException {
+		long position = source.position();
+		long size = source.size();
+		long count = 0;
+		while (position < size) {
+			long n = source.transferTo(position, Math.min(size - position, MAX_TRANSFER), target);
+			if (n <= 0) {
+				break;
+			}
+			position += n;
+			count += n;
+			if (listener != null) {
+				listener.onProgress(count, System.nanoTime() - start, false);
+			}
+		}
+		source.position(position);
+		return count;
+	}
+
+	private static WritableByteChannel target(OutputStream os) {
+		if (os instanceof FileOutputStream) {
+			FileChannel channel = ((FileOutputStream) os).getChannel();
+			if (channel != null) {
+				return channel;
+			}
+		}
+		return Channels.newChannel(os);
+	}
+
+	private static byte[] acquireBuffer() {
+		byte[] buffer = BUFFERS.poll();
+		return buffer != null ? buffer : new byte[BUFFER_SIZE];
+	}
+
+	private static void releaseBuffer(byte[] buffer) {
+		// If the pool is full the buffer is left to the garbage collector
+		BUFFERS.offer(buffer);
 	}
 }
@@ -0,0 +1,55 @@
+package net.dataforte.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+	static void assertEstimate(long expected, long estimate, double error) {
+		assertTrue("estimate " + estimate + " for " + expected, Math.abs(estimate - expected) <= Math.max(1, expected * error));
+	}
+
+	@Test
+	public void testEstimate() {
+		HyperLogLog hll = new HyperLogLog();
+		assertEquals(0, hll.estimate());
+		for (int n : new int[] { 10, 1000, 100000, 1000000 }) {
+			hll.clear();
+			for (int i = 0; i < n; i++) {
+				hll.add("element" + i);
+				// Duplicates do not change the estimate
+				hll.add("element" + i);
+			}
+			assertEstimate(n, hll.estimate(), 4 * hll.getStandardError());
+		}
+	}
+
+	@Test
+	public void testMerge() {
+		List<Integer> elements = new ArrayList<Integer>();
+		HyperLogLog one = new HyperLogLog(12);
+		HyperLogLog two = new HyperLogLog(12);
+		for (int i = 0; i < 200000; i++) {
+			elements.add(i);
+			if (i < 150000) {
+				one.add(i);
+			}
+			if (i >= 50000) {
+				two.add(i);
+			}
+		}
+		HyperLogLog all = HyperLogLog.of(elements, 12);
+		assertEquals(all.estimate(), one.merge(two).estimate());
+		assertEstimate(200000, all.estimate(), 4 * all.getStandardError());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIncompatibleMerge() {
+		new HyperLogLog(10).merge(new HyperLogLog(12));
+	}
+}
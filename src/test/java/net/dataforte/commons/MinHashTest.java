@@ -0,0 +1,51 @@
+package net.dataforte.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MinHashTest {
+
+	static List<String> range(int from, int to) {
+		List<String> elements = new ArrayList<String>();
+		for (int i = from; i < to; i++) {
+			elements.add("element" + i);
+		}
+		return elements;
+	}
+
+	@Test
+	public void testSimilarity() {
+		MinHash one = MinHash.of(range(0, 30000), 512);
+		MinHash two = MinHash.of(range(10000, 40000), 512);
+		// 20000 common elements out of 40000
+		double error = 4 * one.getStandardError();
+		assertEquals(0.5, one.similarity(two), error);
+		assertEquals(1.0, one.similarity(one), 0);
+		assertEquals(0.0, one.similarity(MinHash.of(range(50000, 60000), 512)), error);
+		assertEquals(0.0, new MinHash(512).similarity(new MinHash(512)), 0);
+	}
+
+	@Test
+	public void testEstimates() {
+		MinHash one = MinHash.of(range(0, 30000), 512);
+		MinHash two = MinHash.of(range(10000, 40000), 512);
+		long estimate = one.estimate();
+		assertTrue("estimate " + estimate, Math.abs(estimate - 30000) < 30000 * 0.25);
+		long intersection = one.estimateIntersection(two);
+		assertTrue("intersection " + intersection, Math.abs(intersection - 20000) < 20000 * 0.3);
+		long compare = CollectionUtils.estimateCollectionCompare(one, two);
+		assertTrue("compare " + compare, Math.abs(compare - 20000) < 20000 * 0.3);
+	}
+
+	@Test
+	public void testMerge() {
+		MinHash one = MinHash.of(range(0, 1000), 128);
+		MinHash two = MinHash.of(range(1000, 2000), 128);
+		assertEquals(1.0, one.merge(two).similarity(MinHash.of(range(0, 2000), 128)), 0);
+	}
+}
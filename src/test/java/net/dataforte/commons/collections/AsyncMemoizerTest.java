@@ -0,0 +1,91 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dataforte.commons.concurrent.ExecutorUtils;
+
+import org.junit.Test;
+
+public class AsyncMemoizerTest {
+
+	@Test
+	public void testSharedComputation() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicInteger invocations = new AtomicInteger();
+		ExecutorService executor = ExecutorUtils.newVirtualThreadExecutor("test");
+		try {
+			AsyncMemoizer<Integer, String> memoizer = new AsyncMemoizer<Integer, String>(new Computable<Integer, String>() {
+				public String compute(Integer argument) throws InterruptedException, ExecutionException {
+					invocations.incrementAndGet();
+					latch.await();
+					return "v" + argument;
+				}
+			}, executor);
+			CompletableFuture<String> first = memoizer.compute(1);
+			CompletableFuture<String> second = memoizer.compute(1);
+			// The callers are not blocked by the computation
+			assertTrue(!first.isDone() && !second.isDone());
+			second.cancel(false);
+			latch.countDown();
+			assertEquals("v1", first.get());
+			assertEquals("v1", memoizer.compute(1).get());
+			assertEquals(1, invocations.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailuresAreNotCached() throws Exception {
+		final AtomicInteger invocations = new AtomicInteger();
+		AsyncMemoizer<Integer, String> memoizer = new AsyncMemoizer<Integer, String>(new AsyncComputable<Integer, String>() {
+			public CompletableFuture<String> compute(Integer argument) {
+				CompletableFuture<String> future = new CompletableFuture<String>();
+				if (invocations.incrementAndGet() == 1) {
+					future.completeExceptionally(new IllegalStateException());
+				} else {
+					future.complete("v" + argument);
+				}
+				return future;
+			}
+		});
+		try {
+			memoizer.compute(1).get();
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals(0, memoizer.size());
+		assertEquals("v1", memoizer.compute(1).get());
+	}
+
+	@Test
+	public void testNullFuture() throws Exception {
+		final AtomicInteger invocations = new AtomicInteger();
+		AsyncMemoizer<Integer, String> memoizer = new AsyncMemoizer<Integer, String>(new AsyncComputable<Integer, String>() {
+			public CompletableFuture<String> compute(Integer argument) {
+				if (invocations.incrementAndGet() == 1) {
+					return null;
+				}
+				return CompletableFuture.completedFuture("v" + argument);
+			}
+		});
+		try {
+			memoizer.compute(1).get(1, TimeUnit.SECONDS);
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NullPointerException);
+		}
+		assertEquals(0, memoizer.size());
+		assertEquals("v1", memoizer.compute(1).get(1, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,143 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ByteBufferStoreTest {
+
+	@Test
+	public void testOffHeap() throws Exception {
+		ByteBufferStore<String, String> store = ByteBufferStore.offHeap(256, new SerializingCodec<String>(), new SerializingCodec<String>());
+		store.put("a", "1");
+		store.put("b", "2");
+		store.put("a", "3");
+		assertEquals("3", store.get("a"));
+		assertEquals("2", store.get("b"));
+		store.remove("b");
+		assertNull(store.get("b"));
+		assertEquals(1, store.size());
+		// Fill the buffer: further values are discarded
+		boolean stored = true;
+		for (int i = 0; stored; i++) {
+			stored = store.put("k" + i, "v" + i);
+		}
+		assertFalse(store.put("c", "4"));
+		store.clear();
+		assertEquals(0, store.size());
+		store.put("c", "4");
+		assertEquals("4", store.get("c"));
+	}
+
+	@Test
+	public void testMappedReopen() throws Exception {
+		File file = File.createTempFile("store", ".bin");
+		file.deleteOnExit();
+		ByteBufferStore<Integer, String> store = ByteBufferStore.mapped(file, 4096, new SerializingCodec<Integer>(), new SerializingCodec<String>());
+		for (int i = 0; i < 10; i++) {
+			store.put(i, "v" + i);
+		}
+		store.remove(3);
+		store.put(4, "w4");
+		store.close();
+
+		store = ByteBufferStore.mapped(file, 4096, new SerializingCodec<Integer>(), new SerializingCodec<String>());
+		assertEquals(9, store.size());
+		assertEquals("v0", store.get(0));
+		assertNull(store.get(3));
+		assertEquals("w4", store.get(4));
+		store.put(10, "v10");
+		assertEquals("v10", store.get(10));
+		store.close();
+	}
+
+	@Test
+	public void testMappedReopenCorrupted() throws Exception {
+		File file = File.createTempFile("store", ".bin");
+		file.deleteOnExit();
+		ByteBufferStore<Integer, String> store = ByteBufferStore.mapped(file, 4096, new SerializingCodec<Integer>(), new SerializingCodec<String>());
+		store.put(0, "v0");
+		int second = 4096 - store.getFreeSpace();
+		store.put(1, "v1");
+		store.close();
+
+		// Damage the key of the second record, past its 8-byte header
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(second + 8);
+			raf.write(0);
+		} finally {
+			raf.close();
+		}
+
+		store = ByteBufferStore.mapped(file, 4096, new SerializingCodec<Integer>(), new SerializingCodec<String>());
+		assertEquals(1, store.size());
+		assertEquals("v0", store.get(0));
+		assertNull(store.get(1));
+		// The log is truncated at the damaged record
+		assertEquals(4096 - second, store.getFreeSpace());
+		store.put(2, "v2");
+		store.close();
+
+		store = ByteBufferStore.mapped(file, 4096, new SerializingCodec<Integer>(), new SerializingCodec<String>());
+		assertEquals(2, store.size());
+		assertEquals("v2", store.get(2));
+		store.close();
+	}
+
+	@Test
+	public void testMemoizerDemotion() throws Exception {
+		final AtomicInteger invocations = new AtomicInteger();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(new Computable<Integer, String>() {
+			public String compute(Integer argument) throws InterruptedException, ExecutionException {
+				invocations.incrementAndGet();
+				return "v" + argument;
+			}
+		}, new LRUEvictionPolicy<Integer>(2));
+		ByteBufferStore<Integer, String> store = ByteBufferStore.offHeap(4096, new SerializingCodec<Integer>(), new SerializingCodec<String>());
+		memoizer.setSecondTier(store);
+		for (int i = 0; i < 5; i++) {
+			memoizer.compute(i);
+		}
+		assertEquals(2, memoizer.size());
+		assertEquals(3, store.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals("v" + i, memoizer.compute(i));
+		}
+		assertEquals(5, invocations.get());
+	}
+
+	@Test
+	public void testMemoizerFailingStore() throws Exception {
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(new Computable<Integer, String>() {
+			public String compute(Integer argument) throws InterruptedException, ExecutionException {
+				return "v" + argument;
+			}
+		}, new LRUEvictionPolicy<Integer>(2));
+		memoizer.setSecondTier(new SecondTierStore<Integer, String>() {
+			public String get(Integer key) {
+				throw new IllegalStateException("Corrupt record");
+			}
+
+			public boolean put(Integer key, String value) {
+				return false;
+			}
+
+			public void remove(Integer key) {
+			}
+		});
+		// A failing store is a miss, the values are computed
+		assertEquals("v1", memoizer.compute(1));
+		assertEquals(Collections.singletonMap(2, "v2"), memoizer.computeAll(Arrays.asList(2)));
+		assertEquals("v2", memoizer.compute(2));
+	}
+}
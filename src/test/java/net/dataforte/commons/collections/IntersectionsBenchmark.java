@@ -0,0 +1,156 @@
+package net.dataforte.commons.collections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link Intersections} strategies. The size of the first
+ * collection is fixed while the second one varies, so that the crossover
+ * between merging and galloping, and between hashing either side, is visible.
+ * {@link Naive} measures the former, quadratic implementation of
+ * CollectionUtils.collectionCompare, separately since it is only bearable for
+ * the smallest size. Run with
+ * <code>java -cp target/test-classes:... org.openjdk.jmh.Main IntersectionsBenchmark</code>
+ *
+ * @author Tristan Tarrant
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntersectionsBenchmark {
+	@Param({ "100000" })
+	int size;
+
+	@Param({ "100", "10000", "100000" })
+	int otherSize;
+
+	List<Integer> one;
+	List<Integer> two;
+	List<Integer> sortedOne;
+	List<Integer> sortedTwo;
+	Set<Integer> hashTwo;
+	TreeSet<Integer> treeOne;
+	TreeSet<Integer> treeTwo;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		one = randomList(random, size, 4 * size);
+		two = randomList(random, otherSize, 4 * size);
+		sortedOne = new ArrayList<Integer>(one);
+		Collections.sort(sortedOne);
+		sortedTwo = new ArrayList<Integer>(two);
+		Collections.sort(sortedTwo);
+		hashTwo = new HashSet<Integer>(two);
+		treeOne = new TreeSet<Integer>(one);
+		treeTwo = new TreeSet<Integer>(two);
+	}
+
+	@Benchmark
+	public int hashLarger() {
+		return Intersections.hashCount(two, one);
+	}
+
+	@Benchmark
+	public int hashSmaller() {
+		return Intersections.hashSmallerCount(two, one);
+	}
+
+	@Benchmark
+	public int probeSet() {
+		return Intersections.probeCount(one, hashTwo);
+	}
+
+	@Benchmark
+	public int parallelProbeSet() {
+		return Intersections.parallelCount(one.toArray(), hashTwo);
+	}
+
+	@Benchmark
+	public int mergeSortedLists() {
+		return Intersections.mergeCount(sortedOne, sortedTwo, null);
+	}
+
+	@Benchmark
+	public int gallopSortedLists() {
+		return Intersections.sortedCount(sortedOne, sortedTwo, null);
+	}
+
+	@Benchmark
+	public int sortedSets() {
+		return Intersections.count(treeOne, treeTwo);
+	}
+
+	@Benchmark
+	public int auto() {
+		return Intersections.count(one, two);
+	}
+
+	static List<Integer> randomList(Random random, int size, int range) {
+		List<Integer> list = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(random.nextInt(range));
+		}
+		return list;
+	}
+
+	/**
+	 * The quadratic baseline, with the same inputs as the smallest size of
+	 * the enclosing benchmark
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	@Fork(1)
+	public static class Naive {
+		@Param({ "100000" })
+		int size;
+
+		@Param({ "100" })
+		int otherSize;
+
+		List<Integer> one;
+		List<Integer> two;
+
+		@Setup
+		public void setUp() {
+			Random random = new Random(42);
+			one = randomList(random, size, 4 * size);
+			two = randomList(random, otherSize, 4 * size);
+		}
+
+		@Benchmark
+		public int naive() {
+			int count = 0;
+			for (Integer element : one) {
+				if (two.contains(element))
+					++count;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class IntersectionsTest {
+
+	static int naiveCount(Collection<?> one, Collection<?> two) {
+		int count = 0;
+		for (Object element : one) {
+			if (two.contains(element))
+				++count;
+		}
+		return count;
+	}
+
+	static List<Integer> randomList(Random random, int size, int range) {
+		List<Integer> list = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(random.nextInt(range));
+		}
+		return list;
+	}
+
+	@Test
+	public void testStrategiesAgree() {
+		Random random = new Random(42);
+		int[][] sizes = { { 0, 10 }, { 10, 0 }, { 100, 100 }, { 10, 5000 }, { 5000, 10 }, { 3000, 2000 } };
+		for (int[] size : sizes) {
+			List<Integer> one = randomList(random, size[0], 4000);
+			List<Integer> two = randomList(random, size[1], 4000);
+			int expected = naiveCount(one, two);
+			assertEquals(expected, Intersections.count(one, two));
+			assertEquals(expected, Intersections.count(new LinkedList<Integer>(one), two));
+			assertEquals(expected, Intersections.count(one, new HashSet<Integer>(two)));
+			assertEquals(expected, Intersections.hashCount(one, two));
+			assertEquals(expected, Intersections.hashSmallerCount(one, two));
+
+			List<Integer> sortedOne = new ArrayList<Integer>(one);
+			List<Integer> sortedTwo = new ArrayList<Integer>(two);
+			Collections.sort(sortedOne);
+			Collections.sort(sortedTwo);
+			assertEquals(expected, Intersections.sortedCount(sortedOne, sortedTwo, null));
+			assertEquals(expected, Intersections.mergeCount(sortedOne, sortedTwo, null));
+
+			TreeSet<Integer> setOne = new TreeSet<Integer>(one);
+			TreeSet<Integer> setTwo = new TreeSet<Integer>(two);
+			assertEquals(naiveCount(setOne, setTwo), Intersections.count(setOne, setTwo));
+		}
+	}
+
+	@Test
+	public void testGallop() {
+		List<Integer> list = Arrays.asList(1, 3, 3, 3, 5, 8, 13);
+		assertEquals(0, Intersections.gallop(list, 0, 0, null, false));
+		assertEquals(1, Intersections.gallop(list, 0, 3, null, false));
+		assertEquals(4, Intersections.gallop(list, 0, 3, null, true));
+		assertEquals(5, Intersections.gallop(list, 2, 6, null, false));
+		assertEquals(7, Intersections.gallop(list, 0, 20, null, false));
+	}
+
+	@Test
+	public void testParallel() {
+		Random random = new Random(7);
+		List<Integer> one = randomList(random, Intersections.PARALLEL_THRESHOLD * 2, 1 << 20);
+		List<Integer> two = randomList(random, 100000, 1 << 20);
+		assertEquals(naiveCount(one, new HashSet<Integer>(two)), Intersections.count(one, two));
+	}
+
+	@Test
+	public void testCallerSetProbedOnCallingThread() {
+		Random random = new Random(11);
+		List<Integer> one = randomList(random, Intersections.PARALLEL_THRESHOLD * 2, 1 << 20);
+		final Thread caller = Thread.currentThread();
+		final AtomicInteger foreignProbes = new AtomicInteger();
+		Set<Integer> two = new HashSet<Integer>(randomList(random, 100000, 1 << 20)) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean contains(Object o) {
+				if (Thread.currentThread() != caller) {
+					foreignProbes.incrementAndGet();
+				}
+				return super.contains(o);
+			}
+		};
+		assertEquals(naiveCount(one, two), Intersections.count(one, two));
+		// Sets supplied by the caller may not be safe for concurrent reads
+		assertEquals(0, foreignProbes.get());
+	}
+}
@@ -0,0 +1,373 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dataforte.commons.concurrent.BackoffPolicy;
+
+import org.junit.Test;
+
+public class MemoizerTest {
+
+	static class CountingComputable implements Computable<Integer, String> {
+		final AtomicInteger invocations = new AtomicInteger();
+
+		public String compute(Integer argument) throws InterruptedException, ExecutionException {
+			invocations.incrementAndGet();
+			return "v" + argument;
+		}
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicInteger invocations = new AtomicInteger();
+		final Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(new Computable<Integer, String>() {
+			public String compute(Integer argument) throws InterruptedException, ExecutionException {
+				invocations.incrementAndGet();
+				latch.await();
+				return "v" + argument;
+			}
+		});
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						memoizer.compute(1);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		Thread.sleep(100);
+		latch.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, invocations.get());
+	}
+
+	@Test
+	public void testLRUBound() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable, new LRUEvictionPolicy<Integer>(2));
+		memoizer.compute(1);
+		memoizer.compute(2);
+		memoizer.compute(1);
+		memoizer.compute(3);
+		assertEquals(2, memoizer.size());
+		// 2 was the least recently used entry
+		memoizer.compute(1);
+		assertEquals(3, computable.invocations.get());
+		memoizer.compute(2);
+		assertEquals(4, computable.invocations.get());
+	}
+
+	@Test
+	public void testWeigher() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable, new LRUEvictionPolicy<Integer>(10));
+		memoizer.setWeigher(new Weigher<Integer, String>() {
+			public int weigh(Integer key, String value) {
+				return key;
+			}
+		});
+		memoizer.compute(4);
+		memoizer.compute(5);
+		memoizer.compute(6);
+		assertEquals(1, memoizer.size());
+		assertEquals(6, memoizer.getEvictionPolicy().getWeightedSize());
+	}
+
+	@Test
+	public void testTinyLFUKeepsFrequentKeys() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable, new TinyLFUEvictionPolicy<Integer>(100));
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 50; i++) {
+				memoizer.compute(i);
+			}
+		}
+		int hot = computable.invocations.get();
+		// A scan of one-hit wonders should not flush the frequently used keys
+		for (int i = 1000; i < 2000; i++) {
+			memoizer.compute(i);
+		}
+		assertTrue(memoizer.size() <= 100);
+		computable.invocations.set(0);
+		for (int i = 0; i < 50; i++) {
+			memoizer.compute(i);
+		}
+		assertTrue("hot keys recomputed: " + computable.invocations.get(), computable.invocations.get() < 10);
+		assertEquals(50, hot);
+	}
+
+	@Test
+	public void testTinyLFUWeighted() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		// 2GB of 4MB values: the sketch must be sized by the number of keys, not by the weight
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable, new TinyLFUEvictionPolicy<Integer>(1L << 31));
+		memoizer.setWeigher(new Weigher<Integer, String>() {
+			public int weigh(Integer key, String value) {
+				return 4 << 20;
+			}
+		});
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 400; i++) {
+				memoizer.compute(i);
+			}
+		}
+		for (int i = 1000; i < 3000; i++) {
+			memoizer.compute(i);
+		}
+		assertTrue(memoizer.size() <= 512);
+		computable.invocations.set(0);
+		for (int i = 0; i < 400; i++) {
+			memoizer.compute(i);
+		}
+		assertTrue("hot keys recomputed: " + computable.invocations.get(), computable.invocations.get() < 80);
+	}
+
+	@Test
+	public void testExpireAfterWrite() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		memoizer.setExpireAfterWrite(50, TimeUnit.MILLISECONDS);
+		memoizer.compute(1);
+		memoizer.compute(1);
+		assertEquals(1, computable.invocations.get());
+		Thread.sleep(100);
+		memoizer.compute(1);
+		assertEquals(2, computable.invocations.get());
+	}
+
+	@Test
+	public void testExpireAfterAccess() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		memoizer.setExpireAfterAccess(50, TimeUnit.MILLISECONDS);
+		memoizer.compute(1);
+		memoizer.compute(2);
+		Thread.sleep(30);
+		memoizer.compute(1);
+		Thread.sleep(30);
+		memoizer.cleanUp();
+		assertEquals(1, memoizer.size());
+		memoizer.compute(1);
+		assertEquals(2, computable.invocations.get());
+	}
+
+	@Test
+	public void testRefreshAfterWrite() throws Exception {
+		final AtomicInteger version = new AtomicInteger();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(new Computable<Integer, String>() {
+			public String compute(Integer argument) throws InterruptedException, ExecutionException {
+				return "v" + version.incrementAndGet();
+			}
+		});
+		memoizer.setRefreshAfterWrite(50, TimeUnit.MILLISECONDS);
+		assertEquals("v1", memoizer.compute(1));
+		Thread.sleep(100);
+		// The stale value is returned while the refresh happens in the background
+		assertEquals("v1", memoizer.compute(1));
+		for (int i = 0; i < 100 && version.get() < 2; i++) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(10);
+		assertEquals("v2", memoizer.compute(1));
+	}
+
+	@Test
+	public void testRefreshRejected() throws Exception {
+		final AtomicInteger version = new AtomicInteger();
+		final AtomicInteger rejections = new AtomicInteger();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(new Computable<Integer, String>() {
+			public String compute(Integer argument) throws InterruptedException, ExecutionException {
+				return "v" + version.incrementAndGet();
+			}
+		});
+		memoizer.setRefreshAfterWrite(50, TimeUnit.MILLISECONDS);
+		memoizer.setRefreshExecutor(new Executor() {
+			public void execute(Runnable command) {
+				if (rejections.incrementAndGet() == 1) {
+					throw new RejectedExecutionException("Saturated");
+				}
+				command.run();
+			}
+		});
+		assertEquals("v1", memoizer.compute(1));
+		Thread.sleep(100);
+		// The stale value is still served when the refresh is rejected
+		assertEquals("v1", memoizer.compute(1));
+		// and the next read attempts the refresh again
+		memoizer.compute(1);
+		assertEquals(2, rejections.get());
+		assertEquals("v2", memoizer.compute(1));
+	}
+
+	@Test
+	public void testComputeAll() throws Exception {
+		final AtomicInteger bulkInvocations = new AtomicInteger();
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		memoizer.setBulkComputable(new BulkComputable<Integer, String>() {
+			public Map<Integer, String> computeAll(Collection<? extends Integer> arguments) throws InterruptedException, ExecutionException {
+				bulkInvocations.incrementAndGet();
+				Map<Integer, String> values = new HashMap<Integer, String>();
+				for (Integer argument : arguments) {
+					// Leave one argument out, it should be computed individually
+					if (argument != 4) {
+						values.put(argument, "b" + argument);
+					}
+				}
+				return values;
+			}
+		});
+		memoizer.compute(1);
+		Map<Integer, String> values = memoizer.computeAll(Arrays.asList(1, 2, 3, 4, 2));
+		assertEquals(4, values.size());
+		assertEquals("v1", values.get(1));
+		assertEquals("b2", values.get(2));
+		assertEquals("b3", values.get(3));
+		assertEquals("v4", values.get(4));
+		assertEquals(1, bulkInvocations.get());
+		assertEquals(2, computable.invocations.get());
+		memoizer.computeAll(Arrays.asList(1, 2, 3));
+		assertEquals(1, bulkInvocations.get());
+	}
+
+	@Test
+	public void testComputeAllInvalidArgument() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		try {
+			memoizer.computeAll(Arrays.asList(1, null));
+			fail("Expected a NullPointerException");
+		} catch (NullPointerException e) {
+			// expected
+		}
+		// The entry inserted before the failure must not be left uncomputed
+		assertEquals(0, memoizer.size());
+		assertEquals("v1", memoizer.compute(1));
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable, new LRUEvictionPolicy<Integer>(1));
+		memoizer.setStatsCounter(new ConcurrentStatsCounter());
+		memoizer.compute(1);
+		memoizer.compute(1);
+		memoizer.compute(1);
+		memoizer.compute(2);
+		MemoizerStats stats = memoizer.getStats();
+		assertEquals(2, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+		assertEquals(2, stats.getLoadSuccessCount());
+		assertEquals(1, stats.getEvictionCount());
+		assertEquals(0.5, stats.getHitRate(), 0.0001);
+		assertTrue(stats.getMaxLoadTime() > 0);
+	}
+
+	static class FailingComputable implements Computable<Integer, String> {
+		final AtomicInteger invocations = new AtomicInteger();
+		final int failures;
+
+		FailingComputable(int failures) {
+			this.failures = failures;
+		}
+
+		public String compute(Integer argument) throws InterruptedException, ExecutionException {
+			if (invocations.incrementAndGet() <= failures) {
+				throw new IllegalStateException("failure " + invocations.get());
+			}
+			return "v" + argument;
+		}
+	}
+
+	private static void assertFails(Memoizer<Integer, String> memoizer, Integer argument) throws InterruptedException {
+		try {
+			memoizer.compute(argument);
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testFailuresAreEvicted() throws Exception {
+		FailingComputable computable = new FailingComputable(1);
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		assertFails(memoizer, 1);
+		assertEquals(0, memoizer.size());
+		assertEquals("v1", memoizer.compute(1));
+	}
+
+	@Test
+	public void testFailureBackoff() throws Exception {
+		FailingComputable computable = new FailingComputable(2);
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		memoizer.setFailurePolicy(FailurePolicy.retryWithBackoff(BackoffPolicy.exponential(50, 1000, TimeUnit.MILLISECONDS)));
+		assertFails(memoizer, 1);
+		assertFails(memoizer, 1);
+		assertEquals(1, computable.invocations.get());
+		Thread.sleep(70);
+		assertFails(memoizer, 1);
+		assertEquals(2, computable.invocations.get());
+		// The second failure is cached for twice as long
+		Thread.sleep(70);
+		assertFails(memoizer, 1);
+		assertEquals(2, computable.invocations.get());
+		Thread.sleep(70);
+		assertEquals("v1", memoizer.compute(1));
+		assertEquals(3, computable.invocations.get());
+	}
+
+	@Test
+	public void testWeakKeys() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable, new LRUEvictionPolicy<Integer>(10));
+		memoizer.setWeakKeys(true);
+		Integer key = 100000;
+		assertEquals("v100000", memoizer.compute(key));
+		assertEquals("v100000", memoizer.compute(key));
+		assertEquals(1, computable.invocations.get());
+		// Weak keys are compared by identity: 100000 is outside the Integer cache, so this is a distinct instance
+		memoizer.compute(Integer.valueOf(100000));
+		assertEquals(2, computable.invocations.get());
+		key = null;
+		for (int i = 0; i < 50 && memoizer.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+			memoizer.cleanUp();
+		}
+		assertEquals(0, memoizer.size());
+	}
+
+	@Test
+	public void testSoftValues() throws Exception {
+		CountingComputable computable = new CountingComputable();
+		Memoizer<Integer, String> memoizer = new Memoizer<Integer, String>(computable);
+		memoizer.setSoftValues(true);
+		assertEquals("v1", memoizer.compute(1));
+		assertEquals("v1", memoizer.compute(1));
+		assertEquals(Collections.singletonMap(1, "v1"), memoizer.computeAll(Arrays.asList(1)));
+		assertEquals(1, computable.invocations.get());
+	}
+}
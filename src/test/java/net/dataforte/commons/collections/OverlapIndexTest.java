@@ -0,0 +1,114 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OverlapIndexTest {
+
+	static List<Collection<Integer>> randomCollections(int n) {
+		Random random = new Random(42);
+		List<Collection<Integer>> collections = new ArrayList<Collection<Integer>>();
+		for (int i = 0; i < n; i++) {
+			List<Integer> collection = new ArrayList<Integer>();
+			int size = random.nextInt(50);
+			for (int k = 0; k < size; k++) {
+				// Duplicates are included on purpose
+				collection.add(random.nextInt(300));
+			}
+			collections.add(collection);
+		}
+		return collections;
+	}
+
+	static int overlap(Collection<Integer> one, Collection<Integer> two) {
+		Set<Integer> set = new HashSet<Integer>(one);
+		set.retainAll(new HashSet<Integer>(two));
+		return set.size();
+	}
+
+	@Test
+	public void testMatrices() {
+		List<Collection<Integer>> collections = randomCollections(100);
+		OverlapIndex index = new OverlapIndex(collections);
+		int[][] overlaps = index.overlapMatrix();
+		double[][] similarities = index.similarityMatrix();
+		for (int i = 0; i < collections.size(); i++) {
+			int size = new HashSet<Integer>(collections.get(i)).size();
+			assertEquals(size, overlaps[i][i]);
+			for (int j = 0; j < collections.size(); j++) {
+				if (i != j) {
+					int overlap = overlap(collections.get(i), collections.get(j));
+					assertEquals(overlap, overlaps[i][j]);
+					int union = size + new HashSet<Integer>(collections.get(j)).size() - overlap;
+					assertEquals(union == 0 ? 0 : (double) overlap / union, similarities[i][j], 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPairsAreStreamedOnce() {
+		final AtomicInteger pairs = new AtomicInteger();
+		final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+		List<Collection<Integer>> collections = randomCollections(200);
+		new OverlapIndex(collections).forEachPair(new OverlapIndex.PairConsumer() {
+			public void accept(int first, int second, int overlap, double similarity) {
+				pairs.incrementAndGet();
+				if (first >= second || overlap == 0) {
+					errors.add(first + "," + second);
+				}
+			}
+		});
+		assertTrue(errors.toString(), errors.isEmpty());
+		int expected = 0;
+		for (int i = 0; i < collections.size(); i++) {
+			for (int j = i + 1; j < collections.size(); j++) {
+				if (overlap(collections.get(i), collections.get(j)) > 0) {
+					expected++;
+				}
+			}
+		}
+		assertEquals(expected, pairs.get());
+	}
+
+	@Test
+	public void testTopK() {
+		List<Collection<Integer>> collections = new ArrayList<Collection<Integer>>();
+		collections.add(Arrays.asList(1, 2, 3, 4));
+		collections.add(Arrays.asList(1, 2, 3));
+		collections.add(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8));
+		collections.add(Arrays.asList(4, 9));
+		collections.add(Arrays.asList(10));
+		final List<String> results = new ArrayList<String>();
+		new OverlapIndex(collections).forEachTopK(2, OverlapIndex.Measure.JACCARD, new OverlapIndex.PairConsumer() {
+			public synchronized void accept(int first, int second, int overlap, double similarity) {
+				if (first == 0) {
+					results.add(second + ":" + overlap);
+				}
+			}
+		});
+		// 1 has similarity 3/4, 2 has 4/8 and 3 has 1/5
+		assertEquals(Arrays.asList("1:3", "2:4"), results);
+		final List<String> byOverlap = new ArrayList<String>();
+		new OverlapIndex(collections).forEachTopK(1, OverlapIndex.Measure.OVERLAP, new OverlapIndex.PairConsumer() {
+			public synchronized void accept(int first, int second, int overlap, double similarity) {
+				if (first == 0) {
+					byOverlap.add(second + ":" + overlap);
+				}
+			}
+		});
+		assertEquals(Arrays.asList("2:4"), byOverlap);
+	}
+}
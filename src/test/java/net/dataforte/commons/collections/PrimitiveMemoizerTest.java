@@ -0,0 +1,93 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PrimitiveMemoizerTest {
+
+	@Test
+	public void testIntMemoizer() throws Exception {
+		final AtomicInteger invocations = new AtomicInteger();
+		IntMemoizer<String> memoizer = new IntMemoizer<String>(new IntComputable<String>() {
+			public String compute(int argument) throws InterruptedException, ExecutionException {
+				invocations.incrementAndGet();
+				if (argument < 0) {
+					throw new IllegalArgumentException();
+				}
+				return argument == 0 ? null : "v" + argument;
+			}
+		}, 4, 2);
+		for (int round = 0; round < 2; round++) {
+			for (int i = 1; i <= 1000; i++) {
+				assertEquals("v" + i, memoizer.compute(i));
+			}
+		}
+		assertNull(memoizer.compute(0));
+		assertNull(memoizer.compute(0));
+		assertEquals(1001, invocations.get());
+		assertEquals(1001, memoizer.size());
+		// Failures are not memoized, and removing them must keep the other keys reachable
+		for (int i = -1; i >= -100; i--) {
+			try {
+				memoizer.compute(i);
+				fail("Expected an ExecutionException");
+			} catch (ExecutionException e) {
+				assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+			}
+		}
+		assertEquals(1001, memoizer.size());
+		for (int i = 1; i <= 1000; i++) {
+			assertEquals("v" + i, memoizer.compute(i));
+		}
+		assertEquals(1101, invocations.get());
+	}
+
+	@Test
+	public void testLongToLongMemoizer() throws Exception {
+		final AtomicInteger invocations = new AtomicInteger();
+		final LongToLongMemoizer memoizer = new LongToLongMemoizer(new LongToLongComputable() {
+			public long compute(long argument) throws InterruptedException, ExecutionException {
+				invocations.incrementAndGet();
+				return argument * 2;
+			}
+		});
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (long i = 0; i < 10000; i++) {
+							assertEquals(i * 2, memoizer.compute(i));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(10000, invocations.get());
+		assertEquals(10000, memoizer.size());
+		assertEquals(Long.MIN_VALUE * 2, memoizer.compute(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testLongMemoizer() throws Exception {
+		LongMemoizer<String> memoizer = new LongMemoizer<String>(new LongComputable<String>() {
+			public String compute(long argument) throws InterruptedException, ExecutionException {
+				return Long.toString(argument);
+			}
+		});
+		assertEquals("1099511627776", memoizer.compute(1L << 40));
+		assertEquals(1, memoizer.size());
+	}
+}
@@ -0,0 +1,99 @@
+package net.dataforte.commons.collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class SortedArraysTest {
+
+	static int[] randomSet(Random random, int size, int range) {
+		TreeSet<Integer> set = new TreeSet<Integer>();
+		while (set.size() < size) {
+			set.add(random.nextInt(range));
+		}
+		int[] values = new int[size];
+		int i = 0;
+		for (int value : set) {
+			values[i++] = value;
+		}
+		return values;
+	}
+
+	static TreeSet<Integer> toSet(int[] values) {
+		TreeSet<Integer> set = new TreeSet<Integer>();
+		for (int value : values) {
+			set.add(value);
+		}
+		return set;
+	}
+
+	static int[] toArray(TreeSet<Integer> set) {
+		int[] values = new int[set.size()];
+		int i = 0;
+		for (int value : set) {
+			values[i++] = value;
+		}
+		return values;
+	}
+
+	@Test
+	public void testIntOperations() {
+		Random random = new Random(42);
+		int[][] sizes = { { 0, 10 }, { 10, 0 }, { 1000, 1000 }, { 10, 5000 }, { 5000, 10 } };
+		for (int[] size : sizes) {
+			int[] a = randomSet(random, size[0], 20000);
+			int[] b = randomSet(random, size[1], 20000);
+			assertTrue(SortedArrays.isSet(a));
+			TreeSet<Integer> and = toSet(a);
+			and.retainAll(toSet(b));
+			TreeSet<Integer> or = toSet(a);
+			or.addAll(toSet(b));
+			TreeSet<Integer> andNot = toSet(a);
+			andNot.removeAll(toSet(b));
+			assertEquals(and.size(), SortedArrays.intersectionCount(a, b));
+			assertArrayEquals(toArray(and), SortedArrays.intersection(a, b));
+			assertEquals(or.size(), SortedArrays.unionCount(a, b));
+			assertArrayEquals(toArray(or), SortedArrays.union(a, b));
+			assertEquals(andNot.size(), SortedArrays.differenceCount(a, b));
+			assertArrayEquals(toArray(andNot), SortedArrays.difference(a, b));
+		}
+	}
+
+	@Test
+	public void testLongOperations() {
+		long[] a = { -5, 1, 3, 1L << 40, Long.MAX_VALUE };
+		long[] b = { 1, 2, 1L << 40 };
+		assertEquals(2, SortedArrays.intersectionCount(a, b));
+		assertArrayEquals(new long[] { 1, 1L << 40 }, SortedArrays.intersection(a, b));
+		assertArrayEquals(new long[] { -5, 1, 2, 3, 1L << 40, Long.MAX_VALUE }, SortedArrays.union(a, b));
+		assertArrayEquals(new long[] { -5, 3, Long.MAX_VALUE }, SortedArrays.difference(a, b));
+		assertEquals(3, SortedArrays.gallop(a, 0, 4));
+	}
+
+	@Test
+	public void testBitmap() {
+		Random random = new Random(7);
+		// Sparse and dense chunks, including a negative value
+		int[] a = randomSet(random, 30000, 200000);
+		int[] b = randomSet(random, 3000, 200000);
+		IntBitmap one = IntBitmap.of(a);
+		one.add(-1);
+		IntBitmap two = IntBitmap.of(b);
+		assertEquals(30001, one.cardinality());
+		assertTrue(one.contains(-1) && one.contains(a[100]) && !two.contains(-1));
+		int[] expected = SortedArrays.intersection(a, b);
+		assertEquals(expected.length, one.andCardinality(two));
+		assertArrayEquals(expected, one.and(two).toArray());
+		assertArrayEquals(SortedArrays.difference(b, a), two.andNot(one).toArray());
+		IntBitmap union = one.or(two);
+		assertEquals(SortedArrays.unionCount(a, b) + 1, union.cardinality());
+		assertEquals(-1, union.toArray()[(int) union.cardinality() - 1]);
+		assertEquals(one, union.and(one));
+		assertEquals(0, one.andNot(union).cardinality());
+	}
+}
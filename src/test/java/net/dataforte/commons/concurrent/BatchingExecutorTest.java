@@ -0,0 +1,114 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BatchingExecutorTest {
+
+	static class Doubler implements BatchingExecutor.BulkFunction<Integer, Integer> {
+		final AtomicInteger calls = new AtomicInteger();
+
+		public List<Integer> apply(List<Integer> requests) throws Exception {
+			calls.incrementAndGet();
+			List<Integer> results = new ArrayList<Integer>(requests.size());
+			for (Integer request : requests) {
+				results.add(request * 2);
+			}
+			return results;
+		}
+	}
+
+	@Test
+	public void testMaxBatchSize() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			Doubler doubler = new Doubler();
+			BatchingExecutor<Integer, Integer> batching = new BatchingExecutor<Integer, Integer>(doubler, scheduler);
+			batching.setMaxBatchSize(10);
+			batching.setLinger(1, TimeUnit.HOURS);
+			List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+			for (int i = 0; i < 30; i++) {
+				futures.add(batching.submit(i));
+			}
+			for (int i = 0; i < 30; i++) {
+				assertEquals(i * 2, futures.get(i).get(1, TimeUnit.SECONDS).intValue());
+			}
+			assertEquals(3, doubler.calls.get());
+			assertEquals(3, batching.getBatchSizes().getCount());
+			assertEquals(10, batching.getBatchSizes().getMax());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testLinger() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			Doubler doubler = new Doubler();
+			BatchingExecutor<Integer, Integer> batching = new BatchingExecutor<Integer, Integer>(doubler, scheduler);
+			batching.setLinger(50, TimeUnit.MILLISECONDS);
+			long start = System.nanoTime();
+			CompletableFuture<Integer> first = batching.submit(1);
+			CompletableFuture<Integer> second = batching.submit(2);
+			assertEquals(2, first.get(1, TimeUnit.SECONDS).intValue());
+			assertEquals(4, second.get().intValue());
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+			assertEquals(1, doubler.calls.get());
+			// Flushing does not wait for the linger time
+			batching.setLinger(1, TimeUnit.HOURS);
+			CompletableFuture<Integer> third = batching.submit(3);
+			batching.flush();
+			assertEquals(6, third.get(1, TimeUnit.SECONDS).intValue());
+			batching.shutdown();
+			try {
+				batching.submit(4);
+				fail("Expected RejectedExecutionException");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			BatchingExecutor<Integer, Integer> batching = new BatchingExecutor<Integer, Integer>(new BatchingExecutor.BulkFunction<Integer, Integer>() {
+				public List<Integer> apply(List<Integer> requests) throws Exception {
+					throw new IOException("bulk failure");
+				}
+			}, scheduler);
+			batching.setMaxBatchSize(2);
+			CompletableFuture<Integer> first = batching.submit(1);
+			CompletableFuture<Integer> second = batching.submit(2);
+			for (CompletableFuture<Integer> future : Arrays.asList(first, second)) {
+				try {
+					future.get(1, TimeUnit.SECONDS);
+					fail("Expected ExecutionException");
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof IOException);
+				}
+			}
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void testShedding() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(LimitAlgorithm.fixed(2));
+		ConcurrencyLimiter.Permit first = limiter.tryAcquire();
+		ConcurrencyLimiter.Permit second = limiter.tryAcquire();
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNull(limiter.tryAcquire());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(1, limiter.getRejectedCount());
+		first.onSuccess();
+		assertNotNull(limiter.tryAcquire());
+		assertEquals(2, limiter.getInFlight());
+		try {
+			limiter.wrap(new Callable<String>() {
+				public String call() throws Exception {
+					return "unreachable";
+				}
+			}).call();
+			fail("Expected LimitExceededException");
+		} catch (LimitExceededException e) {
+			// expected
+		}
+		assertEquals(2, limiter.getRejectedCount());
+	}
+
+	@Test
+	public void testQueueing() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(LimitAlgorithm.fixed(1));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ConcurrencyLimiter.Permit held = limiter.tryAcquire();
+			long start = System.nanoTime();
+			assertNull(limiter.acquire(50, TimeUnit.MILLISECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+			final CountDownLatch waiting = new CountDownLatch(1);
+			Future<ConcurrencyLimiter.Permit> queued = executor.submit(new Callable<ConcurrencyLimiter.Permit>() {
+				public ConcurrencyLimiter.Permit call() throws Exception {
+					waiting.countDown();
+					return limiter.acquire(5, TimeUnit.SECONDS);
+				}
+			});
+			waiting.await();
+			Thread.sleep(50);
+			held.onSuccess();
+			ConcurrencyLimiter.Permit permit = queued.get(1, TimeUnit.SECONDS);
+			assertNotNull(permit);
+			permit.onIgnored();
+			assertEquals(0, limiter.getInFlight());
+			assertEquals(1, limiter.getRejectedCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAimd() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(LimitAlgorithm.aimd(10, 2, 20, 0.5));
+		ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[10];
+		for (int i = 0; i < permits.length; i++) {
+			permits[i] = limiter.tryAcquire();
+		}
+		// Successes while the limit is in use grow it
+		permits[0].onSuccess();
+		assertEquals(11, limiter.getLimit());
+		// A drop halves it
+		permits[1].onDropped();
+		assertEquals(5, limiter.getLimit());
+		assertEquals(1, limiter.getDroppedCount());
+		assertNull(limiter.tryAcquire());
+		for (int i = 2; i < permits.length; i++) {
+			permits[i].onDropped();
+		}
+		assertEquals(2, limiter.getLimit());
+		// The limit never falls below the minimum
+		limiter.tryAcquire().onDropped();
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testGradient() throws Exception {
+		LimitAlgorithm gradient = LimitAlgorithm.gradient(10, 1, 100);
+		int limit = gradient.getInitialLimit();
+		// A steady latency with the limit in use lets the limit grow
+		for (int i = 0; i < 200; i++) {
+			limit = gradient.update(limit, 1000000, limit, false);
+		}
+		assertEquals(100, limit);
+		// A rising latency shrinks it
+		for (int i = 0; i < 50; i++) {
+			limit = gradient.update(limit, 2000000, limit, false);
+		}
+		assertTrue(limit < 20);
+		// So do drops, down to the minimum
+		for (int i = 0; i < 50; i++) {
+			limit = gradient.update(limit, 1000000, limit, true);
+		}
+		assertTrue(limit < 5);
+	}
+}
@@ -0,0 +1,113 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DeadlineExecutorTest {
+
+	static Callable<Void> record(final List<String> order, final String name) {
+		return new Callable<Void>() {
+			public Void call() throws Exception {
+				order.add(name);
+				return null;
+			}
+		};
+	}
+
+	@Test
+	public void testEarliestDeadlineFirst() throws Exception {
+		DeadlineExecutor executor = new DeadlineExecutor(1, "edf");
+		try {
+			final CountDownLatch blocked = new CountDownLatch(1);
+			executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					blocked.await();
+					return null;
+				}
+			});
+			List<String> order = Collections.synchronizedList(new ArrayList<String>());
+			executor.submit(record(order, "none"));
+			executor.submit(record(order, "late"), Deadline.after(10, TimeUnit.SECONDS));
+			executor.submit(record(order, "early"), Deadline.after(1, TimeUnit.SECONDS));
+			executor.submit(record(order, "urgent"), 1, Deadline.after(1, TimeUnit.HOURS));
+			Future<Void> last = executor.submit(record(order, "later"), Deadline.after(20, TimeUnit.SECONDS));
+			blocked.countDown();
+			last.get(1, TimeUnit.SECONDS);
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("urgent", "early", "late", "later", "none"), order);
+			assertEquals(6, executor.getQueueWaitTimes().getCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testExpiredTasksAreDropped() throws Exception {
+		DeadlineExecutor executor = new DeadlineExecutor(1, "edf");
+		try {
+			executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					Thread.sleep(100);
+					return null;
+				}
+			});
+			final AtomicInteger runs = new AtomicInteger();
+			Future<Integer> dropped = executor.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					return runs.incrementAndGet();
+				}
+			}, Deadline.after(20, TimeUnit.MILLISECONDS));
+			try {
+				dropped.get(1, TimeUnit.SECONDS);
+				fail("Expected ExecutionException");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof DeadlineExceededException);
+			}
+			assertEquals(0, runs.get());
+			assertEquals(1, executor.getExpiredCount());
+			assertTrue(executor.getQueueWaitTimes().getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRetriesClippedToDeadline() throws Exception {
+		DeadlineExecutor executor = new DeadlineExecutor(1, "edf");
+		try {
+			final AtomicInteger attempts = new AtomicInteger();
+			RetryCallable<String> retry = new RetryCallable<String>(new Callable<String>() {
+				public String call() throws Exception {
+					attempts.incrementAndGet();
+					throw new IOException("failure");
+				}
+			}, 10, BackoffPolicy.fixed(100, TimeUnit.MILLISECONDS));
+			Future<String> future = executor.submit(retry, Deadline.after(250, TimeUnit.MILLISECONDS));
+			try {
+				future.get(1, TimeUnit.SECONDS);
+				fail("Expected ExecutionException");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof DeadlineExceededException);
+			}
+			assertEquals(3, attempts.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
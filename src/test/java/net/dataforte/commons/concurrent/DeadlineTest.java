@@ -0,0 +1,104 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeadlineTest {
+
+	@Test
+	public void testNesting() throws Exception {
+		assertNull(Deadline.current());
+		final Deadline outer = Deadline.after(100, TimeUnit.MILLISECONDS);
+		outer.call(new Callable<Void>() {
+			public Void call() throws Exception {
+				assertSame(outer, Deadline.current());
+				// An inner deadline cannot extend the outer one
+				Deadline inner = Deadline.after(1, TimeUnit.HOURS);
+				assertTrue(inner.remaining(TimeUnit.MILLISECONDS) <= 100);
+				assertTrue(Deadline.clip(1, TimeUnit.SECONDS) <= TimeUnit.MILLISECONDS.toNanos(100));
+				outer.cancel();
+				assertTrue(inner.isCancelled());
+				assertEquals(0, inner.remaining(TimeUnit.NANOSECONDS));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testExpiryInterrupts() throws Exception {
+		Deadline deadline = Deadline.after(50, TimeUnit.MILLISECONDS);
+		long start = System.nanoTime();
+		try {
+			deadline.call(new Callable<Void>() {
+				public Void call() throws Exception {
+					Thread.sleep(5000);
+					return null;
+				}
+			});
+			fail("Expected DeadlineExceededException");
+		} catch (DeadlineExceededException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertNull(Deadline.current());
+		assertFalse(Thread.currentThread().isInterrupted());
+		try {
+			deadline.check();
+			fail("Expected DeadlineExceededException");
+		} catch (DeadlineExceededException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPropagation() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+			Future<Deadline> seen = deadline.call(new Callable<Future<Deadline>>() {
+				public Future<Deadline> call() throws Exception {
+					return executor.submit(Deadline.wrap(new Callable<Deadline>() {
+						public Deadline call() throws Exception {
+							return Deadline.current();
+						}
+					}));
+				}
+			});
+			assertSame(deadline, seen.get());
+			// Cancelling the deadline interrupts the work running under it on other threads
+			Future<Void> running = deadline.call(new Callable<Future<Void>>() {
+				public Future<Void> call() throws Exception {
+					return executor.submit(Deadline.wrap(new Callable<Void>() {
+						public Void call() throws Exception {
+							Thread.sleep(5000);
+							return null;
+						}
+					}));
+				}
+			});
+			Thread.sleep(50);
+			deadline.cancel();
+			try {
+				running.get(1, TimeUnit.SECONDS);
+				fail("Expected DeadlineExceededException");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof DeadlineExceededException);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
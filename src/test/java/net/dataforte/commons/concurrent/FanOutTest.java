@@ -0,0 +1,126 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FanOutTest {
+
+	static Callable<Integer> value(final int value, final long delayMillis) {
+		return new Callable<Integer>() {
+			public Integer call() throws Exception {
+				Thread.sleep(delayMillis);
+				return value;
+			}
+		};
+	}
+
+	static Callable<Integer> failure(final long delayMillis) {
+		return new Callable<Integer>() {
+			public Integer call() throws Exception {
+				Thread.sleep(delayMillis);
+				throw new IOException("failure");
+			}
+		};
+	}
+
+	@Test
+	public void testAllOfWithConcurrencyCap() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < 100; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					int now = running.incrementAndGet();
+					maxRunning.accumulateAndGet(now, Math::max);
+					Thread.sleep(2);
+					running.decrementAndGet();
+					return value;
+				}
+			});
+		}
+		FanOut fanOut = new FanOut(8);
+		FanOut.Results<Integer> results = fanOut.allOf(tasks, 10, TimeUnit.SECONDS);
+		assertFalse(results.isTimedOut());
+		assertEquals(100, results.getSuccessCount());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, results.get(i).intValue());
+		}
+		assertTrue(maxRunning.get() <= 8);
+	}
+
+	@Test
+	public void testAllOfCancelsSiblingsOnFailure() throws Exception {
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		Callable<Integer> slow = new Callable<Integer>() {
+			public Integer call() throws Exception {
+				try {
+					Thread.sleep(5000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+					throw e;
+				}
+				return 0;
+			}
+		};
+		long start = System.nanoTime();
+		try {
+			new FanOut(4).allOf(Arrays.asList(slow, failure(20)), 10, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAllOfPartialOnTimeout() throws Exception {
+		FanOut.Results<Integer> results = new FanOut(4).allOf(Arrays.asList(value(1, 0), value(2, 5000), value(3, 0)), 200, TimeUnit.MILLISECONDS);
+		assertTrue(results.isTimedOut());
+		assertEquals(Arrays.asList(1, 3), results.getSuccesses());
+		assertFalse(results.isSucceeded(1));
+	}
+
+	@Test
+	public void testAnyOf() throws Exception {
+		FanOut fanOut = new FanOut(4);
+		assertEquals(2, fanOut.anyOf(Arrays.asList(failure(0), value(1, 5000), value(2, 50)), 10, TimeUnit.SECONDS).intValue());
+		try {
+			fanOut.anyOf(Arrays.asList(failure(0), failure(10)), 10, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+			assertEquals(1, e.getCause().getSuppressed().length);
+		}
+	}
+
+	@Test
+	public void testFirstN() throws Exception {
+		FanOut fanOut = new FanOut(2);
+		FanOut.Results<Integer> results = fanOut.firstN(Arrays.asList(value(1, 10), failure(0), value(3, 20), value(4, 5000)), 2, 10, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList(1, 3), results.getSuccesses());
+		assertEquals(1, results.getFailureCount());
+		try {
+			fanOut.firstN(Arrays.asList(value(1, 10), failure(0), failure(0)), 2, 10, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+}
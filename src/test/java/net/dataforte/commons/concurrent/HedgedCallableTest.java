@@ -0,0 +1,91 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HedgedCallableTest {
+
+	@Test
+	public void testHedgeWins() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			final AtomicInteger invocations = new AtomicInteger();
+			final CountDownLatch interrupted = new CountDownLatch(1);
+			HedgedCallable<String> hedged = new HedgedCallable<String>(new Callable<String>() {
+				public String call() throws Exception {
+					if (invocations.incrementAndGet() == 1) {
+						try {
+							Thread.sleep(5000);
+						} catch (InterruptedException e) {
+							interrupted.countDown();
+							throw e;
+						}
+						return "slow";
+					}
+					return "fast";
+				}
+			}, executor, 95, 1.0, 50, TimeUnit.MILLISECONDS);
+			long start = System.nanoTime();
+			assertEquals("fast", hedged.call());
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+			assertEquals(1, hedged.getHedgeCount());
+			// The loser is cancelled
+			assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+			// Only the latency of the copy which completed is recorded
+			assertEquals(1, hedged.getLatencies().getCount());
+			assertTrue(hedged.getLatencies().getMax() < TimeUnit.MILLISECONDS.toNanos(50));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAdaptiveDelay() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			HedgedCallable<String> hedged = new HedgedCallable<String>(new Callable<String>() {
+				public String call() throws Exception {
+					return "ok";
+				}
+			}, executor);
+			assertEquals(Long.MAX_VALUE, hedged.getHedgeDelay(TimeUnit.NANOSECONDS));
+			for (int i = 0; i < HedgedCallable.WINDOW; i++) {
+				hedged.call();
+			}
+			long delay = hedged.getHedgeDelay(TimeUnit.MILLISECONDS);
+			assertTrue("delay " + delay, delay < 100);
+			assertEquals(0, hedged.getHedgeCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testHedgeRateCap() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			HedgedCallable<String> hedged = new HedgedCallable<String>(new Callable<String>() {
+				public String call() throws Exception {
+					Thread.sleep(20);
+					return "ok";
+				}
+			}, executor, 95, 0.1, 1, TimeUnit.MILLISECONDS);
+			for (int i = 0; i < 50; i++) {
+				hedged.call();
+			}
+			assertEquals(50, hedged.getCallCount());
+			assertTrue("hedges " + hedged.getHedgeCount(), hedged.getHedgeCount() <= 5);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500.0, histogram.getMean(), 0.1);
+		long median = histogram.getValueAtPercentile(50);
+		assertTrue("median " + median, median >= 500000 && median <= 500000 * 1.25);
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 1000000);
+		histogram.reset();
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testBuckets() {
+		for (long value : new long[] { 0, 1, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE }) {
+			int bucket = Histogram.bucketOf(value);
+			assertTrue(value <= Histogram.upperBoundOf(bucket));
+			if (bucket > 0) {
+				assertTrue(value > Histogram.upperBoundOf(bucket - 1));
+			}
+		}
+	}
+}
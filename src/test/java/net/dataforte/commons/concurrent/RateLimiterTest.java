@@ -0,0 +1,101 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void testTokenBucket() throws Exception {
+		RateLimiter limiter = RateLimiter.tokenBucket(10, TimeUnit.SECONDS, 5);
+		// The bucket starts full
+		for (int i = 0; i < 5; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertFalse(limiter.tryAcquire());
+		long wait = limiter.nanosUntilAvailable(1);
+		assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+		// One token is refilled every 100ms
+		assertTrue(limiter.tryAcquire(1, 1, TimeUnit.SECONDS));
+		assertFalse(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testSlidingWindowLog() throws Exception {
+		RateLimiter limiter = RateLimiter.slidingWindowLog(3, 100, TimeUnit.MILLISECONDS);
+		assertTrue(limiter.tryAcquire(2));
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertTrue(limiter.nanosUntilAvailable(1) > 0);
+		Thread.sleep(110);
+		assertEquals(0, limiter.nanosUntilAvailable(3));
+		assertTrue(limiter.tryAcquire(3));
+		assertFalse(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testConcurrentLimit() throws Exception {
+		final RateLimiter limiter = RateLimiter.striped(4, () -> RateLimiter.slidingWindowLog(250, 1, TimeUnit.HOURS));
+		final AtomicInteger granted = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					if (limiter.tryAcquire()) {
+						granted.incrementAndGet();
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		// All the stripes are used, and none beyond its share
+		assertEquals(1000, granted.get());
+	}
+
+	@Test
+	public void testAcquireAsync() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			RateLimiter limiter = RateLimiter.tokenBucket(20, TimeUnit.SECONDS, 1);
+			assertTrue(limiter.tryAcquire());
+			long start = System.nanoTime();
+			CompletableFuture<Void> first = limiter.acquireAsync(scheduler);
+			CompletableFuture<Void> second = limiter.acquireAsync(scheduler);
+			assertFalse(first.isDone());
+			CompletableFuture.allOf(first, second).get(1, TimeUnit.SECONDS);
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWrap() throws Exception {
+		RateLimiter limiter = RateLimiter.tokenBucket(1, TimeUnit.HOURS, 1);
+		Callable<String> callable = limiter.wrap(new Callable<String>() {
+			public String call() throws Exception {
+				return "ok";
+			}
+		});
+		assertEquals("ok", callable.call());
+		try {
+			callable.call();
+			fail("Expected LimitExceededException");
+		} catch (LimitExceededException e) {
+			// expected
+		}
+	}
+}
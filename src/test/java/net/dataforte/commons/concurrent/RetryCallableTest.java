@@ -0,0 +1,249 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RetryCallableTest {
+
+	static class FlakyCallable implements Callable<String> {
+		final AtomicInteger invocations = new AtomicInteger();
+		final int failures;
+
+		FlakyCallable(int failures) {
+			this.failures = failures;
+		}
+
+		public String call() throws Exception {
+			if (invocations.incrementAndGet() <= failures) {
+				throw new IOException("failure " + invocations.get());
+			}
+			return "ok";
+		}
+	}
+
+	@Test
+	public void testBackoff() throws Exception {
+		FlakyCallable callable = new FlakyCallable(2);
+		long start = System.nanoTime();
+		RetryCallable<String> retry = new RetryCallable<String>(callable, 3, BackoffPolicy.fixed(50, TimeUnit.MILLISECONDS));
+		assertEquals("ok", retry.call());
+		assertEquals(3, callable.invocations.get());
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			FlakyCallable callable = new FlakyCallable(2);
+			CompletableFuture<String> future = new RetryCallable<String>(callable, 3, BackoffPolicy.exponential(10, 100, TimeUnit.MILLISECONDS)).callAsync(scheduler, executor);
+			assertEquals("ok", future.get(5, TimeUnit.SECONDS));
+			assertEquals(3, callable.invocations.get());
+
+			callable = new FlakyCallable(5);
+			future = new RetryCallable<String>(callable, 3, BackoffPolicy.none()).callAsync(scheduler);
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("Expected an exception");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			assertEquals(3, callable.invocations.get());
+		} finally {
+			scheduler.shutdownNow();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAsyncCancellation() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			FlakyCallable callable = new FlakyCallable(10);
+			CompletableFuture<String> future = new RetryCallable<String>(callable, 10, BackoffPolicy.fixed(100, TimeUnit.MILLISECONDS)).callAsync(scheduler);
+			Thread.sleep(50);
+			future.cancel(false);
+			Thread.sleep(200);
+			assertEquals(1, callable.invocations.get());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDecorrelatedJitter() {
+		BackoffPolicy policy = BackoffPolicy.decorrelatedJitter(10, 1000, TimeUnit.MILLISECONDS);
+		long delay = 0;
+		for (int failures = 1; failures < 50; failures++) {
+			long next = policy.getDelayNanos(failures, delay);
+			assertTrue(next >= TimeUnit.MILLISECONDS.toNanos(10));
+			assertTrue(next <= TimeUnit.MILLISECONDS.toNanos(1000));
+			assertTrue(next <= Math.max(3 * delay, TimeUnit.MILLISECONDS.toNanos(10)));
+			delay = next;
+		}
+	}
+
+	@Test
+	public void testRetryBudget() throws Exception {
+		// No minimum, and one retry for every two calls
+		RetryBudget budget = new RetryBudget(0.5, 0, 10, TimeUnit.SECONDS);
+		FlakyCallable callable = new FlakyCallable(100);
+		int failures = 0;
+		for (int i = 0; i < 10; i++) {
+			RetryCallable<String> retry = new RetryCallable<String>(callable, 5);
+			retry.setRetryBudget(budget);
+			try {
+				retry.call();
+				fail("Expected an exception");
+			} catch (IOException e) {
+				failures++;
+			}
+		}
+		assertEquals(10, failures);
+		// 10 first attempts plus 5 retries, instead of 50 attempts
+		assertEquals(15, callable.invocations.get());
+	}
+
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 4, 10, 100, TimeUnit.MILLISECONDS, 1);
+		FlakyCallable callable = new FlakyCallable(4);
+		RetryCallable<String> retry = new RetryCallable<String>(callable, 10);
+		retry.setCircuitBreaker(breaker);
+		try {
+			retry.call();
+			fail("Expected an exception");
+		} catch (CircuitBreakerOpenException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(4, callable.invocations.get());
+		Thread.sleep(150);
+		// The trial call succeeds and closes the breaker
+		assertEquals("ok", retry.call());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenFailure() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1, 1, 10, 50, TimeUnit.MILLISECONDS, 2);
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(!breaker.tryAcquire());
+		Thread.sleep(70);
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.tryAcquire());
+		// Only two trial calls are permitted
+		assertTrue(!breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess();
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenCycles() throws Exception {
+		final CircuitBreaker breaker = new CircuitBreaker("test", 1, 1, 10, 20, TimeUnit.MILLISECONDS, 3);
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (int cycle = 0; cycle < 20; cycle++) {
+				assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+				Thread.sleep(25);
+				final CountDownLatch start = new CountDownLatch(1);
+				final AtomicInteger granted = new AtomicInteger();
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (int i = 0; i < 8; i++) {
+					futures.add(executor.submit(new Callable<Void>() {
+						public Void call() throws Exception {
+							start.await();
+							if (breaker.tryAcquire()) {
+								granted.incrementAndGet();
+							}
+							return null;
+						}
+					}));
+				}
+				start.countDown();
+				for (Future<?> future : futures) {
+					future.get();
+				}
+				// The unused permits of the previous cycle are not carried over
+				assertTrue("granted " + granted.get(), granted.get() >= 1 && granted.get() <= 3);
+				assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+				breaker.onFailure();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		FlakyCallable callable = new FlakyCallable(100);
+		RetryCallable<String> retry = new RetryCallable<String>(callable, 5, BackoffPolicy.fixed(100, TimeUnit.MILLISECONDS));
+		retry.setTimeout(250, TimeUnit.MILLISECONDS);
+		long start = System.nanoTime();
+		try {
+			retry.call();
+			fail("Expected DeadlineExceededException");
+		} catch (DeadlineExceededException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		// The third delay would have exceeded the timeout, so it is not waited for
+		assertEquals(3, callable.invocations.get());
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250));
+	}
+
+	@Test
+	public void testAsyncDeadline() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			final AtomicInteger interrupted = new AtomicInteger();
+			RetryCallable<String> retry = new RetryCallable<String>(new Callable<String>() {
+				public String call() throws Exception {
+					try {
+						Thread.sleep(5000);
+					} catch (InterruptedException e) {
+						interrupted.incrementAndGet();
+						throw e;
+					}
+					return "slow";
+				}
+			}, 3);
+			retry.setTimeout(100, TimeUnit.MILLISECONDS);
+			CompletableFuture<String> future = retry.callAsync(scheduler, Executors.newCachedThreadPool());
+			try {
+				future.get(2, TimeUnit.SECONDS);
+				fail("Expected DeadlineExceededException");
+			} catch (DeadlineExceededException e) {
+				// CompletableFuture rethrows cancellations as they are
+			}
+			// The attempt running at the deadline is interrupted and not retried
+			Thread.sleep(100);
+			assertEquals(1, interrupted.get());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+}
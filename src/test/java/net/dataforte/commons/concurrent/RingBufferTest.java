@@ -0,0 +1,97 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+	@Test
+	public void testOfferPoll() throws Exception {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+		assertEquals(4, buffer.capacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(4, buffer.size());
+		assertEquals(0, buffer.poll().intValue());
+		assertTrue(buffer.offer(4));
+		final List<Integer> drained = new ArrayList<Integer>();
+		assertEquals(3, buffer.drainTo(drained::add, 3));
+		assertEquals(1, buffer.drainTo(drained::add, 3));
+		assertEquals(0, buffer.drainTo(drained::add, 3));
+		assertEquals(Arrays.asList(1, 2, 3, 4), drained);
+		assertNull(buffer.poll());
+		assertEquals(0, buffer.drainTo(drained::add, 3, 10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testAttemptsSaturate() {
+		assertEquals(2, RingBuffer.nextAttempt(1));
+		// A long wait must not overflow back into the spinning phase
+		assertEquals(Integer.MAX_VALUE, RingBuffer.nextAttempt(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testMultiProducerSingleConsumer() throws Exception {
+		exchange(new RingBuffer<Long>(64, WaitStrategy.parking(10, TimeUnit.MICROSECONDS), true), 4, 1);
+	}
+
+	@Test
+	public void testMultiProducerMultiConsumer() throws Exception {
+		exchange(new RingBuffer<Long>(64, WaitStrategy.yielding(), false), 4, 3);
+	}
+
+	private void exchange(final RingBuffer<Long> buffer, int producers, int consumers) throws Exception {
+		final int perProducer = 50000;
+		final long total = (long) producers * perProducer;
+		final AtomicLong consumed = new AtomicLong();
+		final AtomicLong sum = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int p = 0; p < producers; p++) {
+				final long base = (long) p * perProducer;
+				futures.add(executor.submit(() -> {
+					for (long i = 1; i <= perProducer; i++) {
+						buffer.put(base + i);
+					}
+					return null;
+				}));
+			}
+			for (int c = 0; c < consumers; c++) {
+				futures.add(executor.submit(() -> {
+					while (consumed.get() < total) {
+						buffer.drainTo(value -> {
+							sum.addAndGet(value);
+							consumed.incrementAndGet();
+						}, 16, 10, TimeUnit.MILLISECONDS);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(total, consumed.get());
+			// Every element is consumed exactly once
+			assertEquals(total * (total + 1) / 2, sum.get());
+			assertTrue(buffer.isEmpty());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void testCoalescing() throws Exception {
+		final SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+		final AtomicInteger invocations = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<Integer> slow = new Callable<Integer>() {
+			public Integer call() throws Exception {
+				release.await();
+				return invocations.incrementAndGet();
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						return flight.call("key", slow);
+					}
+				}));
+			}
+			while (flight.getCallCount() < 8) {
+				Thread.sleep(1);
+			}
+			CompletableFuture<Integer> async = flight.submit("key", slow, executor);
+			release.countDown();
+			for (Future<Integer> future : futures) {
+				assertEquals(1, future.get(1, TimeUnit.SECONDS).intValue());
+			}
+			assertEquals(1, async.get(1, TimeUnit.SECONDS).intValue());
+			assertEquals(8, flight.getSharedCount());
+			assertEquals(0, flight.getInFlightCount());
+			// The result is not cached
+			assertEquals(2, flight.call("key", slow).intValue());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+		try {
+			flight.call("key", new Callable<Integer>() {
+				public Integer call() throws Exception {
+					throw new IOException("failure");
+				}
+			});
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(0, flight.getInFlightCount());
+	}
+}
@@ -0,0 +1,67 @@
+package net.dataforte.commons.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StripedLockTest {
+
+	@Test
+	public void testMutualExclusion() throws Exception {
+		final StripedLock locks = new StripedLock(10);
+		assertEquals(16, locks.getStripeCount());
+		assertTrue(locks.get("a") == locks.get(new String("a")));
+		final int[] counters = new int[4];
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < 8; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (int i = 0; i < 10000; i++) {
+							final int key = (thread + i) % counters.length;
+							if (i % 100 == 0) {
+								// Overlapping multi-key sections must not deadlock
+								locks.withLocks(Arrays.asList(3 - key, key), new Callable<Void>() {
+									public Void call() throws Exception {
+										counters[key]++;
+										return null;
+									}
+								});
+							} else {
+								locks.withLock(key, new Callable<Void>() {
+									public Void call() throws Exception {
+										counters[key]++;
+										return null;
+									}
+								});
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+			int total = 0;
+			for (int counter : counters) {
+				total += counter;
+			}
+			assertEquals(80000, total);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
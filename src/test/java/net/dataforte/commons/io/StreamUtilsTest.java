@@ -16,13 +16,24 @@
 
 package net.dataforte.commons.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -42,4 +53,66 @@ public class StreamUtilsTest {
 		bis.close();
 	}
 
+	@Test
+	public void testCopyLargeStream() throws IOException {
+		byte[] data = randomBytes(3 * StreamUtils.BUFFER_SIZE + 17);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		StreamUtils.ThroughputMeter meter = new StreamUtils.ThroughputMeter();
+		assertEquals(data.length, StreamUtils.copy(new ByteArrayInputStream(data), baos, meter));
+		assertArrayEquals(data, baos.toByteArray());
+		assertEquals(data.length, meter.getBytes());
+		assertTrue(meter.getBytesPerSecond() > 0);
+	}
+
+	@Test
+	public void testCopyFiles() throws IOException {
+		byte[] data = randomBytes(1024 * 1024 + 3);
+		File source = File.createTempFile("source", ".bin");
+		File target = File.createTempFile("target", ".bin");
+		try {
+			Files.write(source.toPath(), data);
+			FileInputStream fis = new FileInputStream(source);
+			FileOutputStream fos = new FileOutputStream(target);
+			try {
+				// Skipped data must not be copied
+				assertEquals(3, fis.skip(3));
+				assertEquals(data.length - 3, StreamUtils.copy(fis, fos, null));
+			} finally {
+				fis.close();
+				fos.close();
+			}
+			byte[] copied = Files.readAllBytes(target.toPath());
+			assertEquals(data.length - 3, copied.length);
+			assertArrayEquals(Arrays.copyOfRange(data, 3, data.length), copied);
+
+			// File to stream
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			fis = new FileInputStream(source);
+			try {
+				assertEquals(data.length, StreamUtils.copy(fis, baos, null));
+			} finally {
+				fis.close();
+			}
+			assertArrayEquals(data, baos.toByteArray());
+
+			// Stream to file channel
+			FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				assertEquals(data.length, StreamUtils.copy(Channels.newChannel(new ByteArrayInputStream(data)), channel, null));
+				assertEquals(data.length, channel.position());
+			} finally {
+				channel.close();
+			}
+			assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+		} finally {
+			source.delete();
+			target.delete();
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(42).nextBytes(data);
+		return data;
+	}
 }